@@ -0,0 +1,71 @@
+package solutions.s4y.waytoday.sdk;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import solutions.s4y.waytoday.grpc.TrackerOuterClass;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The upload request of a pack: building it from the queued locations, its wire size and
+ * parsing it back into a LocationBatch or into the locations.
+ * The size of the request is printed at the setup. Run with -prof gc to see the allocations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AddLocationsRequestBenchmark {
+    @Param({"16", "128"})
+    public int pack;
+
+    private final List<Location> locations = new ArrayList<>();
+    private final LocationBatch batch = new LocationBatch();
+    private GrpcClient grpcClient;
+    private byte[] request;
+
+    @Setup
+    public void setUp() throws Exception {
+        for (int i = 0; i < pack; i++) {
+            locations.add(new Location("tid", 52.5162746 + i * 1e-5, 13.3777041, 34.5, 270, 1700000000000L + i * 1000, 87, true, "gps", 12.25, 4.5));
+        }
+        // no calls are made, the client only builds the requests
+        grpcClient = new GrpcClient("principal", "secret", "benchmark",
+                new GrpcChannelPool(1, () -> {
+                    throw new IllegalStateException("no channels in the benchmark");
+                }));
+        request = grpcClient.addLocationsRequest("tid", locations).toByteArray();
+        System.out.println("AddLocationsRequest of " + pack + " locations: " + request.length + " bytes, "
+                + request.length / pack + " bytes per location");
+    }
+
+    @Benchmark
+    public TrackerOuterClass.AddLocationsRequest build() {
+        return grpcClient.addLocationsRequest("tid", locations);
+    }
+
+    @Benchmark
+    public byte[] buildAndSerialize() {
+        return grpcClient.addLocationsRequest("tid", locations).toByteArray();
+    }
+
+    @Benchmark
+    public void parseToLocations(Blackhole blackhole) throws InvalidProtocolBufferException {
+        TrackerOuterClass.AddLocationsRequest parsed = TrackerOuterClass.AddLocationsRequest.parseFrom(request);
+        for (int i = 0; i < parsed.getLocationsCount(); i++) {
+            blackhole.consume(LocationGrpcBridge.fromProto(parsed.getLocations(i)));
+        }
+    }
+
+    @Benchmark
+    public LocationBatch parseToBatch() throws InvalidProtocolBufferException {
+        batch.clear();
+        LocationGrpcBridge.fromProto(TrackerOuterClass.AddLocationsRequest.parseFrom(request).getLocationsList(), batch);
+        return batch;
+    }
+}
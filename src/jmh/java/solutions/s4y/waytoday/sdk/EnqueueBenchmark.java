@@ -0,0 +1,72 @@
+package solutions.s4y.waytoday.sdk;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * enqueueLocationToUpload under 1, 4 and 16 producer threads: the queue offer and
+ * the fan-out of the status to the listeners, every enqueue notifies all of them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EnqueueBenchmark {
+    @Param({"0", "1", "8"})
+    public int listeners;
+
+    private final Location location = new Location("tid", 1, 2, 3, 4, 5, 6, false, "", 7, 8);
+    private FakeTrackerServer server;
+    private WayTodayClient client;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = FakeTrackerServer.inProcess();
+        client = new WayTodayClient(new IPersistedState() {
+            @Override
+            public String getTrackerId() {
+                return "tid";
+            }
+
+            @Override
+            public void setTrackerId(String trackerId) {
+            }
+
+            @Override
+            public boolean hasTrackerId() {
+                return true;
+            }
+        }, server.client());
+        for (int i = 0; i < listeners; i++) {
+            client.addUploadingLocationsStatusChangeListener(status -> {
+            });
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void enqueue1() {
+        client.enqueueLocationToUpload(location);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void enqueue4() {
+        client.enqueueLocationToUpload(location);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void enqueue16() {
+        client.enqueueLocationToUpload(location);
+    }
+}
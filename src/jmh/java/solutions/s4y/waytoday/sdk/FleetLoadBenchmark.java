@@ -0,0 +1,77 @@
+package solutions.s4y.waytoday.sdk;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load of the fleet client: every tracker uploads one location to a server answering
+ * after a delay, so the blocking workers mostly wait for the network.
+ * Compares the platform and the virtual (JDK 21+) workers by the throughput and by
+ * the peak number of the platform threads printed at the end of the trial.
+ * The score is the rounds of all the trackers per second, the locations counter
+ * is the uploaded locations per second. The virtual workers need JDK 21.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FleetLoadBenchmark {
+    private static final long SERVER_LATENCY_MS = 5;
+
+    @Param({"false", "true"})
+    public boolean virtual;
+    @Param({"1000"})
+    public int trackers;
+
+    private final Location location = new Location("tid", 1, 2, 3, 4, 5, 6, false, "", 7, 8);
+    private FakeTrackerServer server;
+    private WayTodayFleetClient client;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Uploaded {
+        public long locations;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            locations = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        server = FakeTrackerServer.inProcess().latency(SERVER_LATENCY_MS, 0);
+        GrpcClient grpcClient = server.client();
+        // a worker per tracker: all of them upload at once
+        client = new WayTodayFleetClient(grpcClient, trackers, 16, virtual);
+        threads.resetPeakThreadCount();
+    }
+
+    @TearDown
+    public void tearDown() {
+        // a single value per trial, the aux counters would be summed over the iterations
+        System.out.println("peak platform threads: " + threads.getPeakThreadCount());
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public void uploadOneLocationPerTracker(Uploaded counters) throws InterruptedException {
+        for (int i = 0; i < trackers; i++) {
+            client.enqueueLocationToUpload(String.valueOf(i), location);
+        }
+        for (int i = 0; i < trackers; i++) {
+            String tid = String.valueOf(i);
+            while (client.getQueueSize(tid) > 0) {
+                Thread.sleep(1);
+            }
+        }
+        counters.locations += trackers;
+    }
+}
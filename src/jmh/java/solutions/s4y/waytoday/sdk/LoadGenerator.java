@@ -0,0 +1,272 @@
+package solutions.s4y.waytoday.sdk;
+
+import io.grpc.Status;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Simulates a fleet of trackers to size the server before the rollout
+ * Every tracker drives along its own circular route at the given rate of fixes, the fixes
+ * are uploaded by one WayTodayFleetClient, so the threads are bounded by its workers and
+ * not by the trackers. It is connected to the endpoint or, by default, to the in-process
+ * fake server. Reports every interval the fixes per second emitted and uploaded, the queue
+ * depth, the dropped fixes and the upload latency percentiles of the interval, then the totals.
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Djmh.main=solutions.s4y.waytoday.sdk.LoadGenerator \
+ *     -Djmh.args="--trackers 200 --rate 2 --duration 30"
+ * </pre>
+ */
+public final class LoadGenerator {
+    private static final String USAGE = "Options:\n"
+            + "  --trackers N        the simulated trackers, 100\n"
+            + "  --rate R            the fixes per second of every tracker, 1\n"
+            + "  --duration S        the seconds to emit the fixes, 60\n"
+            + "  --report S          the seconds between the reports, 1\n"
+            + "  --workers N         the concurrent uploads, 8\n"
+            + "  --virtual           run the workers on virtual threads, JDK 21+\n"
+            + "  --pack N            the fixes of a tracker per call, 16\n"
+            + "  --linger-ms MS      merge the trackers into one call waiting up to MS, 0 - a call per tracker\n"
+            + "  --batch N           the fixes of a merged call, 500\n"
+            + "  --channels N        the gRPC channels shared by the trackers, 1\n"
+            + "  --endpoint H:P      the server to load, the in-process fake server if omitted\n"
+            + "  --tls               use TLS for the endpoint\n"
+            + "  --principal P       the credentials for the endpoint, GRPC_PRINCIPAL by default\n"
+            + "  --secret S          GRPC_PASSWORD by default\n"
+            + "  --latency-ms MS     the fake server answers after MS, 5\n"
+            + "  --jitter-ms MS      plus up to MS at random, 0\n"
+            + "  --error-rate F      the part of the calls failed by the fake server with UNAVAILABLE, 0\n";
+    // the start of the routes
+    private static final double LAT = 52.5162746;
+    private static final double LON = 13.3777041;
+    private static final double METERS_PER_DEGREE = 111_320;
+
+    private final List<Tracker> trackers = new ArrayList<>();
+    private final LongAdder emitted = new LongAdder();
+    private WayTodayFleetClient fleet;
+
+    private static final class Tracker {
+        final String tid;
+        final double centerLat;
+        final double centerLon;
+        final double radiusM;
+        // radians per second, negative - clockwise
+        final double angularSpeed;
+        final double phase;
+
+        Tracker(String tid) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            this.tid = tid;
+            this.centerLat = LAT + random.nextDouble(-0.1, 0.1);
+            this.centerLon = LON + random.nextDouble(-0.1, 0.1);
+            this.radiusM = random.nextDouble(200, 2000);
+            double speed = random.nextDouble(5, 30);
+            this.angularSpeed = (random.nextBoolean() ? 1 : -1) * speed / radiusM;
+            this.phase = random.nextDouble(2 * Math.PI);
+        }
+
+        Location fix(long ts, double seconds) {
+            double angle = phase + angularSpeed * seconds;
+            double north = radiusM * Math.sin(angle);
+            double east = radiusM * Math.cos(angle);
+            double lat = centerLat + north / METERS_PER_DEGREE;
+            double lon = centerLon + east / (METERS_PER_DEGREE * Math.cos(Math.toRadians(centerLat)));
+            // the compass heading of the velocity, the tangent of the circle
+            double sign = Math.signum(angularSpeed);
+            double heading = Math.toDegrees(Math.atan2(-Math.sin(angle) * sign, Math.cos(angle) * sign));
+            long bearing = Math.round(heading + 360) % 360;
+            return new Location(tid, lat, lon, 35, bearing, ts, 80, false, "loadgen",
+                    Math.abs(angularSpeed) * radiusM, 5);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options;
+        try {
+            options = parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+            return;
+        }
+        new LoadGenerator().run(options);
+        // the gRPC and the fake server threads
+        System.exit(0);
+    }
+
+    @Nonnull
+    static Map<String, String> parse(@Nonnull String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--"))
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            String name = arg.substring(2);
+            if (name.equals("help"))
+                throw new IllegalArgumentException("");
+            if (name.equals("tls") || name.equals("virtual")) {
+                options.put(name, "true");
+            } else if (i + 1 < args.length) {
+                options.put(name, args[++i]);
+            } else {
+                throw new IllegalArgumentException("No value of " + arg);
+            }
+        }
+        return options;
+    }
+
+    void run(@Nonnull Map<String, String> options) throws Exception {
+        int count = Integer.parseInt(options.getOrDefault("trackers", "100"));
+        double rate = Double.parseDouble(options.getOrDefault("rate", "1"));
+        long durationS = Long.parseLong(options.getOrDefault("duration", "60"));
+        long reportS = Long.parseLong(options.getOrDefault("report", "1"));
+        int workers = Integer.parseInt(options.getOrDefault("workers", "8"));
+        boolean virtual = Boolean.parseBoolean(options.getOrDefault("virtual", "false"));
+        int pack = Integer.parseInt(options.getOrDefault("pack", "16"));
+        long lingerMs = Long.parseLong(options.getOrDefault("linger-ms", "0"));
+        int batch = Integer.parseInt(options.getOrDefault("batch", "500"));
+        int channels = Integer.parseInt(options.getOrDefault("channels", "1"));
+        String endpoint = options.get("endpoint");
+
+        FakeTrackerServer server = null;
+        GrpcClient grpcClient;
+        if (endpoint == null) {
+            server = FakeTrackerServer.inProcess()
+                    .latency(Long.parseLong(options.getOrDefault("latency-ms", "5")),
+                            Long.parseLong(options.getOrDefault("jitter-ms", "0")))
+                    .errors(Double.parseDouble(options.getOrDefault("error-rate", "0")), Status.UNAVAILABLE);
+            grpcClient = server.client(FakeTrackerServer.PRINCIPAL, FakeTrackerServer.SECRET, channels);
+        } else {
+            int colon = endpoint.lastIndexOf(':');
+            if (colon < 0)
+                throw new IllegalArgumentException("The endpoint is not host:port: " + endpoint);
+            grpcClient = new GrpcClient(
+                    options.getOrDefault("principal", GrpcClient.readStartArgument("GRPC_PRINCIPAL", "")),
+                    options.getOrDefault("secret", GrpcClient.readStartArgument("GRPC_PASSWORD", "")),
+                    "loadgen",
+                    GrpcChannelPool.forAddress(endpoint.substring(0, colon),
+                            Integer.parseInt(endpoint.substring(colon + 1)),
+                            Boolean.parseBoolean(options.getOrDefault("tls", "false")), channels, 0, 0));
+        }
+        fleet = new WayTodayFleetClient(grpcClient, workers, WayTodayFleetClient.DEFAULT_MAX_LOCATIONS_PER_TRACKER,
+                virtual);
+        fleet.setQuantum(pack);
+        if (lingerMs > 0)
+            fleet.setCoalescing(lingerMs, batch);
+        for (int i = 0; i < count; i++) {
+            trackers.add(new Tracker("loadgen-" + i));
+        }
+
+        System.out.printf(Locale.ROOT, "%d trackers, %.2f fixes/s each, %d %s workers, %s%n", count, rate,
+                workers, virtual ? "virtual" : "platform", endpoint == null ? "in-process fake server" : endpoint);
+        System.out.printf(Locale.ROOT, "%6s %10s %10s %8s %8s %8s %8s %8s%n",
+                "time,s", "emitted/s", "uploaded/s", "queued", "dropped", "p50,ms", "p99,ms", "max,ms");
+
+        ScheduledExecutorService fixes = Executors.newScheduledThreadPool(
+                Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors())), daemon("loadgen-fixes"));
+        long periodNs = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long started = System.nanoTime();
+        for (Tracker tracker : trackers) {
+            // spread the trackers over the period
+            fixes.scheduleAtFixedRate(() -> {
+                double seconds = (System.nanoTime() - started) / 1e9;
+                fleet.enqueueLocationToUpload(tracker.tid, tracker.fix(System.currentTimeMillis(), seconds));
+                emitted.increment();
+            }, ThreadLocalRandom.current().nextLong(periodNs), periodNs, TimeUnit.NANOSECONDS);
+        }
+
+        LatencyHistogram latency = grpcClient.getLatency(GrpcOperation.ADD_LOCATIONS);
+        // the histogram is shared with the metrics, the intervals are the differences of its snapshots
+        LatencyHistogram startLatency = latency.snapshot();
+        LatencyHistogram prevLatency = startLatency;
+        long prevEmitted = 0;
+        long prevUploaded = 0;
+        for (long t = reportS; t <= durationS; t += reportS) {
+            Thread.sleep(Math.max(0, started + TimeUnit.SECONDS.toNanos(t) - System.nanoTime()) / 1_000_000);
+            long e = emitted.sum();
+            long uploaded = uploaded(e);
+            LatencyHistogram nowLatency = latency.snapshot();
+            LatencyHistogram interval = nowLatency.minus(prevLatency);
+            prevLatency = nowLatency;
+            report(t, (e - prevEmitted) / (double) reportS, (uploaded - prevUploaded) / (double) reportS,
+                    queued(), dropped(), interval);
+            prevEmitted = e;
+            prevUploaded = uploaded;
+        }
+        fixes.shutdownNow();
+        fixes.awaitTermination(1, TimeUnit.SECONDS);
+
+        // let the trackers upload what is left, the failed ones wait for uploadLocations()
+        long drainStarted = System.nanoTime();
+        while (queued() > 0 && System.nanoTime() - drainStarted < TimeUnit.SECONDS.toNanos(10)) {
+            fleet.uploadLocations();
+            Thread.sleep(100);
+        }
+        long total = emitted.sum();
+        long elapsedNs = System.nanoTime() - started;
+        System.out.printf(Locale.ROOT, "total: emitted %d, uploaded %d, dropped %d, left %d, %.1f uploaded fixes/s%n",
+                total, uploaded(total), dropped(), queued(), uploaded(total) / (elapsedNs / 1e9));
+        System.out.println("upload latency: " + latency.snapshot().minus(startLatency));
+        if (server != null)
+            System.out.printf(Locale.ROOT, "fake server: %d calls, %d rejected, %d fixes stored%n",
+                    server.getCalls(), server.getRejected(), server.getLocationsCount());
+
+        fleet.close();
+        if (server != null)
+            server.close();
+    }
+
+    private static void report(long t, double emittedPerS, double uploadedPerS, long queued, long dropped,
+                               @Nonnull LatencyHistogram latency) {
+        System.out.printf(Locale.ROOT, "%6d %10.1f %10.1f %8d %8d %8.1f %8.1f %8.1f%n",
+                t, emittedPerS, uploadedPerS, queued, dropped,
+                latency.getPercentileMicros(50) / 1000.0,
+                latency.getPercentileMicros(99) / 1000.0,
+                latency.getMaxMicros() / 1000.0);
+    }
+
+    /**
+     * The fixes acknowledged by the server: neither queued nor dropped,
+     * the packs in flight are still in the queues
+     */
+    private long uploaded(long emitted) {
+        return emitted - queued() - dropped();
+    }
+
+    private long queued() {
+        long queued = 0;
+        for (Tracker tracker : trackers) {
+            queued += fleet.getQueueSize(tracker.tid);
+        }
+        return queued;
+    }
+
+    private long dropped() {
+        long dropped = 0;
+        for (Tracker tracker : trackers) {
+            dropped += fleet.getDropped(tracker.tid);
+        }
+        return dropped;
+    }
+
+    private static ThreadFactory daemon(@Nonnull String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,69 @@
+package solutions.s4y.waytoday.sdk;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.openjdk.jmh.annotations.*;
+import solutions.s4y.waytoday.grpc.LocationOuterClass;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of a location with protobuf and with the compact LocationCodec
+ * Run with -prof gc to compare the allocations too.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LocationCodecBenchmark {
+    private final Location location = new Location("tid", 52.5162746, 13.3777041, 34.5, 270, 1700000000000L, 87, true, "gps", 12.25, 4.5);
+    private final LocationCodec.Dictionary dictionary = new LocationCodec.Dictionary();
+    private final ByteBuffer fixed = ByteBuffer.allocate(LocationCodec.FIXED_SIZE);
+    private final ByteBuffer inline = ByteBuffer.allocate(LocationCodec.inlineSize(location));
+    private byte[] proto;
+
+    @Setup
+    public void setUp() {
+        proto = LocationGrpcBridge.toProto(location, "").toByteArray();
+        LocationCodec.encodeFixed(location, fixed, dictionary);
+        LocationCodec.encodeInline(location, inline);
+    }
+
+    @Benchmark
+    public byte[] protoEncode() {
+        return LocationGrpcBridge.toProto(location, "").toByteArray();
+    }
+
+    @Benchmark
+    public Location protoDecode() throws InvalidProtocolBufferException {
+        return LocationGrpcBridge.fromProto(LocationOuterClass.Location.parseFrom(proto));
+    }
+
+    @Benchmark
+    public ByteBuffer fixedEncode() {
+        fixed.clear();
+        LocationCodec.encodeFixed(location, fixed, dictionary);
+        return fixed;
+    }
+
+    @Benchmark
+    public Location fixedDecode() {
+        fixed.clear();
+        return LocationCodec.decodeFixed(fixed, dictionary);
+    }
+
+    @Benchmark
+    public ByteBuffer inlineEncode() {
+        inline.clear();
+        LocationCodec.encodeInline(location, inline);
+        return inline;
+    }
+
+    @Benchmark
+    public Location inlineDecode() {
+        inline.clear();
+        return LocationCodec.decodeInline(inline);
+    }
+}
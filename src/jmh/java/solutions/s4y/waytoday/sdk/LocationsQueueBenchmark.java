@@ -0,0 +1,68 @@
+package solutions.s4y.waytoday.sdk;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contention of the location queue: three producers enqueue while the uploader drains
+ * The "list" group repeats the synchronized LinkedList the queue used to be.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class LocationsQueueBenchmark {
+    private final Location location = new Location("tid", 1, 2, 3, 4, 5, 6, false, "", 7, 8);
+    private final Deque<Location> list = new LinkedList<>();
+    private final LocationsRingBuffer ring = new LocationsRingBuffer(WayTodayClient.MAX_LOCATIONS_MEMORY);
+
+    @State(Scope.Thread)
+    public static class Pack {
+        final List<Location> locations = new ArrayList<>(WayTodayClient.PACK_SIZE);
+    }
+
+    @Benchmark
+    @Group("list")
+    @GroupThreads(3)
+    public void listOffer() {
+        synchronized (list) {
+            list.addLast(location);
+            if (list.size() > WayTodayClient.MAX_LOCATIONS_MEMORY) {
+                list.removeFirst();
+            }
+        }
+    }
+
+    @Benchmark
+    @Group("list")
+    public int listDrain(Pack pack) {
+        pack.locations.clear();
+        synchronized (list) {
+            for (int i = 0; i < WayTodayClient.PACK_SIZE && !list.isEmpty(); i++) {
+                pack.locations.add(list.pollFirst());
+            }
+        }
+        return pack.locations.size();
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(3)
+    public int ringOffer() {
+        return ring.offer(location);
+    }
+
+    @Benchmark
+    @Group("ring")
+    public int ringDrain(Pack pack) {
+        pack.locations.clear();
+        return ring.drainTo(pack.locations, WayTodayClient.PACK_SIZE);
+    }
+}
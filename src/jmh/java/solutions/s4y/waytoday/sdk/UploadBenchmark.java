@@ -0,0 +1,69 @@
+package solutions.s4y.waytoday.sdk;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drain throughput of uploadLocations(): a full queue uploaded to the in-process fake server,
+ * one pack at a time or with packs in flight, the score is the locations per millisecond.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UploadBenchmark {
+    private static final int QUEUE = WayTodayClient.MAX_LOCATIONS_MEMORY;
+
+    @Param({"1", "4"})
+    public int packsInFlight;
+    @Param({"0", "1"})
+    public long serverLatencyMs;
+
+    private final Location location = new Location("tid", 1, 2, 3, 4, 5, 6, false, "", 7, 8);
+    private FakeTrackerServer server;
+    private WayTodayClient client;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = FakeTrackerServer.inProcess().latency(serverLatencyMs, 0);
+        client = new WayTodayClient(new IPersistedState() {
+            @Override
+            public String getTrackerId() {
+                return "tid";
+            }
+
+            @Override
+            public void setTrackerId(String trackerId) {
+            }
+
+            @Override
+            public boolean hasTrackerId() {
+                return true;
+            }
+        }, server.client());
+        client.setMaxPacksInFlight(packsInFlight);
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() {
+        for (int i = 0; i < QUEUE; i++) {
+            client.enqueueLocationToUpload(location);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUEUE)
+    public int drain() {
+        client.uploadLocations();
+        return client.locationsQueue.size();
+    }
+}
@@ -0,0 +1,58 @@
+package solutions.s4y.waytoday.sdk.wsse;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the WSSE header on the upload path
+ * legacyToken repeats the implementation that looked up MessageDigest
+ * and formatted the date on every call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WsseBenchmark {
+    private final WsseCallCredentials perCall = new WsseCallCredentials("principal", "secret");
+    private final WsseCallCredentials cached = new WsseCallCredentials("principal", "secret", 60_000);
+
+    private static String legacyToken(String principal, String secret) throws NoSuchAlgorithmException {
+        String nonce = String.valueOf(Math.random());
+        String created = new Date().toString();
+        MessageDigest md = MessageDigest.getInstance("SHA");
+        md.update((nonce + created + secret).getBytes(StandardCharsets.UTF_8));
+        String digest = Base64.getEncoder().encodeToString(md.digest());
+        return "Username=\"" + principal + "\"," +
+                "PasswordDigest=\"" + digest + "\"," +
+                "nonce=\"" + nonce + "\"," +
+                "Created=\"" + created + "\"";
+    }
+
+    @Benchmark
+    public String legacyToken() throws Exception {
+        return legacyToken("principal", "secret");
+    }
+
+    @Benchmark
+    public String getToken() throws Exception {
+        return Wsse.getToken("principal", "secret");
+    }
+
+    @Benchmark
+    public String perCallCredentials() throws Exception {
+        return perCall.token();
+    }
+
+    @Benchmark
+    public String cachedCredentials() throws Exception {
+        return cached.token();
+    }
+}
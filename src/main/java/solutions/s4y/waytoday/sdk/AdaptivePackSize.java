@@ -0,0 +1,64 @@
+package solutions.s4y.waytoday.sdk;
+
+/**
+ * Chooses the number of locations per uploaded pack
+ * The pack grows additively while full packs are acknowledged within the target
+ * latency and is halved on errors and slow uploads. The size is capped so the
+ * request stays well below the gRPC message size limit.
+ */
+class AdaptivePackSize {
+    static final int MIN_PACK_SIZE = 1;
+    static final int MAX_PACK_SIZE = 1024;
+    static final int INCREMENT = 8;
+    static final long DEFAULT_TARGET_LATENCY_MS = 1000;
+    // gRPC servers accept 4MiB messages by default, a half of it is left as a headroom
+    static final long MAX_REQUEST_BYTES = 2 * 1024 * 1024;
+    // weight of the last pack in the average size of a location
+    private static final double BYTES_ALPHA = 0.2;
+
+    private int size;
+    private long targetLatencyNanos;
+    private double bytesPerLocation = 0;
+
+    AdaptivePackSize(int initial, long targetLatencyMs) {
+        this.size = Math.max(MIN_PACK_SIZE, Math.min(MAX_PACK_SIZE, initial));
+        this.targetLatencyNanos = targetLatencyMs * 1_000_000L;
+    }
+
+    synchronized int get() {
+        return size;
+    }
+
+    synchronized void setTargetLatencyMs(long targetLatencyMs) {
+        this.targetLatencyNanos = targetLatencyMs * 1_000_000L;
+    }
+
+    synchronized void onSuccess(int locations, long bytes, long latencyNanos) {
+        if (locations > 0) {
+            double last = (double) bytes / locations;
+            bytesPerLocation = bytesPerLocation == 0 ? last : bytesPerLocation + BYTES_ALPHA * (last - bytesPerLocation);
+        }
+        if (latencyNanos > targetLatencyNanos) {
+            decrease();
+        } else if (locations >= size) {
+            // only a full pack proves the link can take more
+            size = Math.min(size + INCREMENT, maxSize());
+        } else {
+            size = Math.min(size, maxSize());
+        }
+    }
+
+    synchronized void onFailure() {
+        decrease();
+    }
+
+    private void decrease() {
+        size = Math.max(MIN_PACK_SIZE, size / 2);
+    }
+
+    private int maxSize() {
+        if (bytesPerLocation <= 0)
+            return MAX_PACK_SIZE;
+        return (int) Math.max(MIN_PACK_SIZE, Math.min(MAX_PACK_SIZE, MAX_REQUEST_BYTES / bytesPerLocation));
+    }
+}
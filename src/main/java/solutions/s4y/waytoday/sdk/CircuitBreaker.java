@@ -0,0 +1,255 @@
+package solutions.s4y.waytoday.sdk;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calling the server while it is failing
+ * CLOSED - the calls pass, the outcomes of the last windowSize calls are kept, and once
+ * the failed or the slow calls make up the threshold rate of them the breaker opens.
+ * OPEN - the calls fail at once with UNAVAILABLE for openMs.
+ * HALF_OPEN - the next halfOpenCalls calls are let through to probe the server: the breaker
+ * closes if all of them succeed in time and opens again on the first failed or slow one.
+ * The failures are UNAVAILABLE, DEADLINE_EXCEEDED, RESOURCE_EXHAUSTED, INTERNAL and UNKNOWN,
+ * the other statuses mean the server is up. The cancelled calls are not counted.
+ */
+public final class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int windowSize;
+    private final double failureRateThreshold;
+    private final long slowCallNs;
+    private final double slowCallRateThreshold;
+    private final long openNs;
+    private final int halfOpenCalls;
+    private final LongSupplier nanoClock;
+    final List<Consumer<State>> stateListeners = new CopyOnWriteArrayList<>();
+    private final ClientInterceptor interceptor = new Interceptor();
+
+    // guarded by this
+    private State state = State.CLOSED;
+    // the ring of the outcomes: bit 0 - failed, bit 1 - slow
+    private final byte[] window;
+    private int next;
+    private int calls;
+    private int failures;
+    private int slowCalls;
+    private long openedAt;
+    private int trials;
+    private int trialsSucceeded;
+
+    /**
+     * Opens on the half of 20 calls failed or on all of them slower than 10s,
+     * probes the server with 3 calls after 30s
+     */
+    public CircuitBreaker() {
+        this(20, 0.5, 10_000, 1, 30_000, 3);
+    }
+
+    /**
+     * @param failureRateThreshold  the part of the failed calls of the window to open the breaker
+     * @param slowCallMs            the calls taking that long are slow
+     * @param slowCallRateThreshold the part of the slow calls of the window to open the breaker
+     */
+    public CircuitBreaker(int windowSize, double failureRateThreshold, long slowCallMs, double slowCallRateThreshold,
+                          long openMs, int halfOpenCalls) {
+        this(windowSize, failureRateThreshold, slowCallMs, slowCallRateThreshold, openMs, halfOpenCalls, System::nanoTime);
+    }
+
+    CircuitBreaker(int windowSize, double failureRateThreshold, long slowCallMs, double slowCallRateThreshold,
+                   long openMs, int halfOpenCalls, LongSupplier nanoClock) {
+        if (windowSize < 1 || failureRateThreshold <= 0 || failureRateThreshold > 1 || slowCallMs < 1
+                || slowCallRateThreshold <= 0 || slowCallRateThreshold > 1 || openMs < 0 || halfOpenCalls < 1)
+            throw new IllegalArgumentException("Invalid circuit breaker");
+        this.windowSize = windowSize;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNs = TimeUnit.MILLISECONDS.toNanos(slowCallMs);
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.openNs = TimeUnit.MILLISECONDS.toNanos(openMs);
+        this.halfOpenCalls = halfOpenCalls;
+        this.nanoClock = nanoClock;
+        this.window = new byte[windowSize];
+    }
+
+    @Nonnull
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return false while the breaker is open, the probe calls are not taken
+     */
+    public synchronized boolean isCallPermitted() {
+        return state != State.OPEN || nanoClock.getAsLong() - openedAt >= openNs;
+    }
+
+    ClientInterceptor interceptor() {
+        return interceptor;
+    }
+
+    boolean tryAcquire() {
+        State changed = null;
+        boolean permitted;
+        synchronized (this) {
+            if (state == State.OPEN && nanoClock.getAsLong() - openedAt >= openNs) {
+                changed = transition(State.HALF_OPEN);
+            }
+            if (state == State.CLOSED) {
+                permitted = true;
+            } else if (state == State.HALF_OPEN && trials < halfOpenCalls) {
+                trials++;
+                permitted = true;
+            } else {
+                permitted = false;
+            }
+        }
+        notifyState(changed);
+        return permitted;
+    }
+
+    void onResult(@Nonnull Status status, long durationNs) {
+        if (status.getCode() == Status.Code.CANCELLED) {
+            synchronized (this) {
+                if (state == State.HALF_OPEN && trials > 0)
+                    trials--;
+            }
+            return;
+        }
+        boolean failed = isFailure(status.getCode());
+        boolean slow = durationNs >= slowCallNs;
+        State changed = null;
+        synchronized (this) {
+            if (state == State.HALF_OPEN) {
+                if (failed || slow)
+                    changed = transition(State.OPEN);
+                else if (++trialsSucceeded >= halfOpenCalls)
+                    changed = transition(State.CLOSED);
+            } else if (state == State.CLOSED) {
+                record(failed, slow);
+                if (calls == windowSize
+                        && (failures >= failureRateThreshold * calls || slowCalls >= slowCallRateThreshold * calls))
+                    changed = transition(State.OPEN);
+            }
+        }
+        notifyState(changed);
+    }
+
+    private static boolean isFailure(Status.Code code) {
+        switch (code) {
+            case UNAVAILABLE:
+            case DEADLINE_EXCEEDED:
+            case RESOURCE_EXHAUSTED:
+            case INTERNAL:
+            case UNKNOWN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void record(boolean failed, boolean slow) {
+        byte old = window[next];
+        if (calls == windowSize) {
+            failures -= old & 1;
+            slowCalls -= (old >> 1) & 1;
+        } else {
+            calls++;
+        }
+        window[next] = (byte) ((failed ? 1 : 0) | (slow ? 2 : 0));
+        failures += failed ? 1 : 0;
+        slowCalls += slow ? 1 : 0;
+        next = (next + 1) % windowSize;
+    }
+
+    private State transition(State to) {
+        state = to;
+        trials = 0;
+        trialsSucceeded = 0;
+        if (to == State.OPEN) {
+            openedAt = nanoClock.getAsLong();
+        } else if (to == State.CLOSED) {
+            next = 0;
+            calls = 0;
+            failures = 0;
+            slowCalls = 0;
+        }
+        return to;
+    }
+
+    private void notifyState(@Nullable State changed) {
+        if (changed == null)
+            return;
+        for (Consumer<State> listener : stateListeners) {
+            try {
+                listener.accept(changed);
+            } catch (Exception e) {
+                // ignore
+            }
+        }
+    }
+
+    private final class Interceptor implements ClientInterceptor {
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+                                                                   CallOptions callOptions, Channel next) {
+            if (!tryAcquire())
+                return new RejectedCall<>();
+            return new ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(next.newCall(method, callOptions)) {
+                @Override
+                public void start(Listener<RespT> responseListener, Metadata headers) {
+                    final long start = nanoClock.getAsLong();
+                    super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT>(responseListener) {
+                        @Override
+                        public void onClose(Status status, Metadata trailers) {
+                            onResult(status, nanoClock.getAsLong() - start);
+                            super.onClose(status, trailers);
+                        }
+                    }, headers);
+                }
+            };
+        }
+    }
+
+    /**
+     * The call failing at once without reaching the channel
+     */
+    private static final class RejectedCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
+        @Override
+        public void start(Listener<RespT> responseListener, Metadata headers) {
+            responseListener.onClose(Status.UNAVAILABLE.withDescription("The circuit breaker is open"), new Metadata());
+        }
+
+        @Override
+        public void request(int numMessages) {
+        }
+
+        @Override
+        public void cancel(@Nullable String message, @Nullable Throwable cause) {
+        }
+
+        @Override
+        public void halfClose() {
+        }
+
+        @Override
+        public void sendMessage(ReqT message) {
+        }
+    }
+}
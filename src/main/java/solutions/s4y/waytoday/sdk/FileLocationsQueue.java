@@ -0,0 +1,541 @@
+package solutions.s4y.waytoday.sdk;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import solutions.s4y.waytoday.grpc.LocationOuterClass;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Durable queue of the locations waiting for the upload
+ * The locations are appended to the segment files of a directory as checksummed
+ * records, the segments are rotated by size and deleted once all their locations
+ * are acknowledged. The position of the oldest not acknowledged location is kept
+ * in a separate file. On the start the segments are replayed and a record torn by
+ * a crash is truncated, so the queue survives the process being killed.
+ * The writes are flushed to the disk at most once per sync interval (group commit),
+ * a shared timer flushes the last writes of a burst, so at most the locations of one
+ * sync interval are lost by a crash. Call sync() to force it.
+ * The locations are stored with the inline LocationCodec encoding, the ones which
+ * do not fit it are stored as protobuf. A location taking more than 64KiB, i.e. with
+ * huge strings, is rejected by offer() with IllegalArgumentException.
+ * The I/O errors are thrown as UncheckedIOException.
+ */
+public class FileLocationsQueue implements ILocationsQueue {
+    public static final int DEFAULT_MAX_LOCATIONS = 100_000;
+    public static final long DEFAULT_SEGMENT_BYTES = 1024 * 1024;
+    public static final long DEFAULT_SYNC_INTERVAL_MS = 200;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String HEAD_FILE = "head";
+    // length and checksum of the payload
+    private static final int RECORD_HEADER = 8;
+    private static final int MAX_RECORD = 64 * 1024;
+    // the first byte of the payload tells its encoding
+    private static final byte FORMAT_PROTO = 0;
+    private static final byte FORMAT_COMPACT = 1;
+
+    private static final class Segment {
+        final long first;
+        final File file;
+        final FileChannel channel;
+        long size;
+        int count;
+
+        Segment(long first, File file) throws IOException {
+            this.first = first;
+            this.file = file;
+            this.channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = channel.size();
+        }
+
+        void delete() throws IOException {
+            channel.close();
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    // created on the first use, one thread for all the queues
+    private static final class SyncTimer {
+        static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "waytoday-queue-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        void visit(ByteBuffer payload) throws IOException;
+    }
+
+    private final File directory;
+    private final int maxLocations;
+    private final long segmentBytes;
+    private final long syncIntervalNanos;
+    // not a monitor: a virtual thread blocked on the disk I/O under a monitor pins its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final FileChannel headChannel;
+    private final ByteBuffer headRecord = ByteBuffer.allocate(16);
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(MAX_RECORD + RECORD_HEADER);
+    private final CRC32 crc = new CRC32();
+    // the position and the offset in the first segment of the oldest location
+    private long head;
+    private long headOffset;
+    // the position of the next location
+    private long tail;
+    // the offset after the last record visited by readRecords
+    private long readOffset;
+    private long lastSync = System.nanoTime();
+    private boolean unsynced = false;
+    // the timed sync of the writes left unsynced by the group commit
+    private ScheduledFuture<?> syncTask;
+    private long dropped = 0;
+    private boolean closed = false;
+
+    /**
+     * @param directory      the directory exclusively owned by the queue, created if missing
+     * @param maxLocations   the oldest locations are evicted beyond that number
+     * @param segmentBytes   the size of the segment file to start a new one
+     * @param syncIntervalMs the appended locations are flushed to the disk at most that often
+     */
+    public FileLocationsQueue(@Nonnull File directory, int maxLocations, long segmentBytes, long syncIntervalMs) throws IOException {
+        if (maxLocations < 1)
+            throw new IllegalArgumentException("maxLocations must be positive: " + maxLocations);
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can not create the directory " + directory);
+        this.directory = directory;
+        this.maxLocations = maxLocations;
+        this.segmentBytes = segmentBytes;
+        this.syncIntervalNanos = syncIntervalMs * 1_000_000L;
+        this.headChannel = FileChannel.open(new File(directory, HEAD_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+    }
+
+    public FileLocationsQueue(@Nonnull File directory) throws IOException {
+        this(directory, DEFAULT_MAX_LOCATIONS, DEFAULT_SEGMENT_BYTES, DEFAULT_SYNC_INTERVAL_MS);
+    }
+
+    private static long segmentFirst(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private File segmentFile(long first) {
+        return new File(directory, String.format("%020d%s", first, SEGMENT_SUFFIX));
+    }
+
+    private void recover() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files == null)
+            files = new File[0];
+        Arrays.sort(files, (a, b) -> Long.compare(segmentFirst(a), segmentFirst(b)));
+        long storedHead = readHead();
+        boolean corrupted = false;
+        for (File file : files) {
+            long first = segmentFirst(file);
+            // nothing after a damaged record can be trusted to keep the positions contiguous
+            if (corrupted || first < 0 || (!segments.isEmpty() && first != tail)) {
+                corrupted = true;
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                continue;
+            }
+            Segment segment = new Segment(first, file);
+            segment.count = readRecords(segment, 0, Integer.MAX_VALUE, payload -> {
+            });
+            if (readOffset < segment.size) {
+                segment.channel.truncate(readOffset);
+                segment.size = readOffset;
+                corrupted = true;
+            }
+            segments.addLast(segment);
+            tail = first + segment.count;
+        }
+        if (segments.isEmpty()) {
+            head = Math.max(0, storedHead);
+            tail = head;
+            segments.addLast(new Segment(head, segmentFile(head)));
+            writeHead();
+            return;
+        }
+        long first = segments.getFirst().first;
+        head = first;
+        headOffset = 0;
+        if (storedHead > first && storedHead <= tail)
+            skip(storedHead - first);
+        writeHead();
+    }
+
+    private long readHead() throws IOException {
+        headRecord.clear();
+        readFully(headChannel, headRecord, 0);
+        if (headRecord.position() < headRecord.capacity())
+            return -1;
+        long stored = headRecord.getLong(0);
+        long checksum = headRecord.getLong(8);
+        headRecord.clear();
+        headRecord.limit(8);
+        crc.reset();
+        crc.update(headRecord);
+        return crc.getValue() == checksum ? stored : -1;
+    }
+
+    private void writeHead() throws IOException {
+        headRecord.clear();
+        headRecord.putLong(0, head);
+        headRecord.limit(8);
+        crc.reset();
+        crc.update(headRecord);
+        headRecord.clear();
+        headRecord.putLong(8, crc.getValue());
+        writeFully(headChannel, headRecord, 0);
+        unsynced = true;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0)
+                break;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * Visits up to max valid records of the segment starting at the offset
+     * @return the number of the visited records, readOffset is set after the last of them
+     */
+    private int readRecords(Segment segment, long offset, int max, RecordVisitor visitor) throws IOException {
+        int count = 0;
+        readOffset = offset;
+        while (count < max && readOffset < segment.size) {
+            readBuffer.clear();
+            if (segment.size - readOffset < readBuffer.capacity())
+                readBuffer.limit((int) (segment.size - readOffset));
+            readFully(segment.channel, readBuffer, readOffset);
+            readBuffer.flip();
+            int visited = 0;
+            while (count < max && readBuffer.remaining() >= RECORD_HEADER) {
+                int start = readBuffer.position();
+                int length = readBuffer.getInt(start);
+                int checksum = readBuffer.getInt(start + 4);
+                if (length <= 0 || length > MAX_RECORD || readBuffer.remaining() < RECORD_HEADER + length)
+                    break;
+                ByteBuffer payload = readBuffer.duplicate();
+                payload.position(start + RECORD_HEADER).limit(start + RECORD_HEADER + length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum)
+                    return count;
+                visitor.visit(payload);
+                readBuffer.position(start + RECORD_HEADER + length);
+                readOffset += RECORD_HEADER + length;
+                count++;
+                visited++;
+            }
+            // the buffer always fits a whole record, so no progress means a torn or damaged one
+            if (visited == 0)
+                break;
+        }
+        return count;
+    }
+
+    /**
+     * Moves the head forward by n locations deleting the segments left behind
+     */
+    private void skip(long n) throws IOException {
+        while (n > 0) {
+            Segment segment = segments.getFirst();
+            if (headOffset >= segment.size) {
+                if (segments.size() == 1)
+                    break;
+                segments.removeFirst().delete();
+                headOffset = 0;
+                continue;
+            }
+            int skipped = readRecords(segment, headOffset, (int) Math.min(n, Integer.MAX_VALUE), payload -> {
+            });
+            if (skipped == 0)
+                break;
+            headOffset = readOffset;
+            head += skipped;
+            n -= skipped;
+        }
+        while (segments.size() > 1 && headOffset >= segments.getFirst().size) {
+            segments.removeFirst().delete();
+            headOffset = 0;
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed)
+            throw new IllegalStateException("The queue is closed");
+    }
+
+    private void syncIfDue() throws IOException {
+        if (!unsynced)
+            return;
+        long elapsed = System.nanoTime() - lastSync;
+        if (elapsed >= syncIntervalNanos)
+            syncNow();
+        else if (syncTask == null)
+            syncTask = SyncTimer.INSTANCE.schedule(this::syncOnTimer, syncIntervalNanos - elapsed, TimeUnit.NANOSECONDS);
+    }
+
+    private void syncOnTimer() {
+        lock.lock();
+        try {
+            syncTask = null;
+            if (!closed && unsynced)
+                syncNow();
+        } catch (IOException e) {
+            // the writes stay unsynced, the next operation or close() reports the error
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void syncNow() throws IOException {
+        segments.getLast().channel.force(false);
+        headChannel.force(false);
+        unsynced = false;
+        lastSync = System.nanoTime();
+    }
+
+    /**
+     * Flushes the appended locations and the acknowledgements to the disk
+     */
+    public void sync() {
+        lock.lock();
+        try {
+            ensureOpen();
+            try {
+                syncNow();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if all the writes are flushed to the disk
+     */
+    boolean isSynced() {
+        lock.lock();
+        try {
+            return !unsynced;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the record exceeds MAX_RECORD, the recovery would take it for a damaged one
+     */
+    private ByteBuffer encode(Location location) {
+        int size = LocationCodec.inlineSize(location);
+        byte[] proto = null;
+        if (size < 0) {
+            proto = LocationGrpcBridge.toProto(location, "").toByteArray();
+            size = proto.length;
+        }
+        if (1 + size > MAX_RECORD)
+            throw new IllegalArgumentException("The location record of " + (1 + size)
+                    + " bytes exceeds " + MAX_RECORD + " bytes");
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + 1 + size);
+        ((Buffer) record).position(RECORD_HEADER);
+        if (proto == null) {
+            record.put(FORMAT_COMPACT);
+            LocationCodec.encodeInline(location, record);
+        } else {
+            record.put(FORMAT_PROTO).put(proto);
+        }
+        ((Buffer) record).flip();
+        ByteBuffer payload = record.duplicate();
+        ((Buffer) payload).position(RECORD_HEADER);
+        crc.reset();
+        crc.update(payload);
+        record.putInt(0, 1 + size).putInt(4, (int) crc.getValue());
+        return record;
+    }
+
+    private static Location decode(ByteBuffer payload) throws IOException {
+        byte format = payload.get();
+        try {
+            if (format == FORMAT_COMPACT)
+                return LocationCodec.decodeInline(payload);
+            if (format == FORMAT_PROTO)
+                return LocationGrpcBridge.fromProto(LocationOuterClass.Location.parseFrom(payload));
+        } catch (InvalidProtocolBufferException | BufferUnderflowException e) {
+            throw new IOException("Damaged location record", e);
+        }
+        throw new IOException("Unknown location record format " + format);
+    }
+
+    @Override
+    public int offer(@Nonnull Location location) {
+        lock.lock();
+        try {
+            ensureOpen();
+            ByteBuffer record = encode(location);
+            try {
+                Segment segment = segments.getLast();
+                if (segment.size >= segmentBytes) {
+                    segment.channel.force(false);
+                    segment = new Segment(tail, segmentFile(tail));
+                    segments.addLast(segment);
+                }
+                writeFully(segment.channel, record, segment.size);
+                segment.size += record.limit();
+                segment.count++;
+                tail++;
+                unsynced = true;
+                int evicted = 0;
+                if (tail - head > maxLocations) {
+                    long before = head;
+                    skip(tail - head - maxLocations);
+                    evicted = (int) (head - before);
+                    dropped += evicted;
+                    writeHead();
+                }
+                syncIfDue();
+                return evicted;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long peek(@Nonnull Collection<? super Location> into, int max) {
+        lock.lock();
+        try {
+            ensureOpen();
+            try {
+                int taken = 0;
+                long offset = headOffset;
+                Iterator<Segment> it = segments.iterator();
+                Segment segment = it.next();
+                while (taken < max) {
+                    if (offset >= segment.size) {
+                        if (!it.hasNext())
+                            break;
+                        segment = it.next();
+                        offset = 0;
+                        continue;
+                    }
+                    int read = readRecords(segment, offset, max - taken, payload -> into.add(decode(payload)));
+                    if (read == 0)
+                        break;
+                    taken += read;
+                    offset = readOffset;
+                }
+                return head;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void removeUpTo(long end) {
+        lock.lock();
+        try {
+            ensureOpen();
+            if (end <= head)
+                return;
+            try {
+                skip(Math.min(end, tail) - head);
+                writeHead();
+                syncIfDue();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return (int) Math.min(Integer.MAX_VALUE, tail - head);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long dropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes the queue to the disk and releases the files
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+            if (syncTask != null)
+                syncTask.cancel(false);
+            try {
+                syncNow();
+                for (Segment segment : segments) {
+                    segment.channel.close();
+                }
+                headChannel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package solutions.s4y.waytoday.sdk;
+
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A small pool of long-lived channels shared by all the calls of GrpcClient
+ * Channels are created lazily on the first use and handed out round-robin,
+ * so the cost of a call is a single HTTP/2 stream rather than a new connection.
+ * gRPC reconnects a channel by itself after a transport failure, a channel
+ * that has been shut down is replaced by a new one.
+ */
+class GrpcChannelPool implements AutoCloseable {
+    @FunctionalInterface
+    interface ChannelFactory {
+        @Nonnull
+        ManagedChannel create();
+    }
+
+    static final long SHUTDOWN_TIMEOUT_MS = 5000;
+
+    private final ChannelFactory factory;
+    private final AtomicReferenceArray<ManagedChannel> channels;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile boolean closed = false;
+    final LongAdder reconnects = new LongAdder();
+
+    GrpcChannelPool(int size, @Nonnull ChannelFactory factory) {
+        if (size < 1)
+            throw new IllegalArgumentException("The pool size must be positive: " + size);
+        this.factory = factory;
+        this.channels = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * @param idleTimeoutMs the channel releases its connection after being idle that long, 0 - gRPC default
+     * @param keepAliveMs   the interval of HTTP/2 pings while there are active calls, 0 - disabled
+     */
+    static GrpcChannelPool forAddress(@Nonnull String host, int port, boolean tls, int size, long idleTimeoutMs, long keepAliveMs) {
+        return new GrpcChannelPool(size, () -> {
+            ManagedChannelBuilder<?> channelBuilder = ManagedChannelBuilder
+                    .forAddress(host, port);
+            if (!tls)
+                channelBuilder.usePlaintext();
+            if (idleTimeoutMs > 0)
+                channelBuilder.idleTimeout(idleTimeoutMs, TimeUnit.MILLISECONDS);
+            if (keepAliveMs > 0) {
+                channelBuilder.keepAliveTime(keepAliveMs, TimeUnit.MILLISECONDS);
+                channelBuilder.keepAliveWithoutCalls(false);
+            }
+            return channelBuilder.build();
+        });
+    }
+
+    int size() {
+        return channels.length();
+    }
+
+    @Nonnull
+    ManagedChannel get() {
+        if (closed)
+            throw new IllegalStateException("The channel pool is closed");
+        int i = (next.getAndIncrement() & Integer.MAX_VALUE) % channels.length();
+        ManagedChannel channel = channels.get(i);
+        if (channel != null && !channel.isShutdown())
+            return channel;
+        synchronized (channels) {
+            channel = channels.get(i);
+            if (channel == null || channel.isShutdown()) {
+                if (closed)
+                    throw new IllegalStateException("The channel pool is closed");
+                Object event = JfrEvents.channelStarted();
+                channel = factory.create();
+                JfrEvents.channelEnded(event, i, channels.length());
+                channels.set(i, channel);
+                watch(channel);
+            }
+            return channel;
+        }
+    }
+
+    private void watch(@Nonnull ManagedChannel channel) {
+        ConnectivityState state;
+        try {
+            state = channel.getState(false);
+        } catch (UnsupportedOperationException e) {
+            return;
+        }
+        watch(channel, state, false, false);
+    }
+
+    /**
+     * Counts the channel getting READY again after it has lost the connection:
+     * a TRANSIENT_FAILURE or a drop from READY straight to CONNECTING.
+     * The idle cycle READY - IDLE - CONNECTING - READY is not a reconnect.
+     */
+    private void watch(@Nonnull ManagedChannel channel, @Nonnull ConnectivityState state, boolean wasReady,
+                       boolean lost) {
+        channel.notifyWhenStateChanged(state, () -> {
+            ConnectivityState now = channel.getState(false);
+            if (now == ConnectivityState.SHUTDOWN)
+                return;
+            if (now == ConnectivityState.READY) {
+                if (wasReady && lost)
+                    reconnects.increment();
+                watch(channel, now, true, false);
+                return;
+            }
+            boolean dropped = now == ConnectivityState.TRANSIENT_FAILURE
+                    || (state == ConnectivityState.READY && now == ConnectivityState.CONNECTING);
+            watch(channel, now, wasReady, lost || dropped);
+        });
+    }
+
+    @Override
+    public void close() {
+        synchronized (channels) {
+            if (closed)
+                return;
+            closed = true;
+        }
+        for (int i = 0; i < channels.length(); i++) {
+            ManagedChannel channel = channels.getAndSet(i, null);
+            if (channel != null)
+                channel.shutdown();
+        }
+    }
+
+    /**
+     * Waits for the calls in flight to complete and cancels them
+     * if they do not complete within the timeout
+     */
+    void close(long timeoutMs) throws InterruptedException {
+        ManagedChannel[] snapshot = new ManagedChannel[channels.length()];
+        for (int i = 0; i < snapshot.length; i++)
+            snapshot[i] = channels.get(i);
+        close();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        for (ManagedChannel channel : snapshot) {
+            if (channel == null)
+                continue;
+            long left = deadline - System.nanoTime();
+            if (left <= 0 || !channel.awaitTermination(left, TimeUnit.NANOSECONDS))
+                channel.shutdownNow();
+        }
+    }
+}
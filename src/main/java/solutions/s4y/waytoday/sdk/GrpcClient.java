@@ -1,33 +1,44 @@
 package solutions.s4y.waytoday.sdk;
 
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import com.google.protobuf.MessageLite;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
 import io.grpc.Metadata;
-import io.grpc.stub.MetadataUtils;
-import solutions.s4y.waytoday.sdk.wsse.Wsse;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.stub.AbstractStub;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import solutions.s4y.waytoday.sdk.wsse.WsseCallCredentials;
 import solutions.s4y.waytoday.grpc.TrackerGrpc;
 import solutions.s4y.waytoday.grpc.TrackerOuterClass;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
-
-class GrpcClient {
-    static class CloseableChannel implements AutoCloseable {
-        final public ManagedChannel get;
-
-        CloseableChannel(ManagedChannel channel) {
-            this.get = channel;
-        }
-
-        @Override
-        public void close() {
-            get.shutdown();
-        }
-    }
-
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+class GrpcClient implements AutoCloseable {
     // TODO: should be annotation
     @Nonnull
     static String readStartArgument(@Nonnull String name, @Nullable String def) {
@@ -46,13 +57,21 @@ class GrpcClient {
         return readStartArgument(name, null);
     }
 
-    private final Metadata.Key<String> wsseKey = Metadata.Key.of("wsse", Metadata.ASCII_STRING_MARSHALLER);
-    private final String principal;
-    private final String secret;
-    private final boolean tls;
-    private final String host;
-    private final int port;
+    private final WsseCallCredentials credentials;
     private final String provider;
+    private final GrpcChannelPool channels;
+    @Nullable
+    private volatile CircuitBreaker circuitBreaker;
+    private static final CallOptions.Key<GrpcOperation> OPERATION = CallOptions.Key.create("waytoday-operation");
+    // 0 - no deadline
+    private final AtomicLongArray deadlinesMs = new AtomicLongArray(GrpcOperation.values().length);
+    private final EnumMap<GrpcOperation, LatencyHistogram> latencies = new EnumMap<>(GrpcOperation.class);
+    private final ClientInterceptor latencyInterceptor = new LatencyInterceptor();
+    final LongAdder bytesSent = new LongAdder();
+    @Nullable
+    private volatile HedgingPolicy hedgingPolicy;
+    @Nullable
+    private ScheduledExecutorService hedgeTimer;
 
     /**
      * @param principal mandatory string to identify the application against WayToday server.
@@ -65,12 +84,22 @@ class GrpcClient {
      */
 
     GrpcClient(String principal, String secret, boolean tls, String host, int port, String provider){
-        this.principal = principal;
-        this.secret = secret;
-        this.tls = tls;
-        this.host = host;
-        this.port = port;
+        this(principal, secret, provider, GrpcChannelPool.forAddress(host, port, tls,
+                Integer.parseInt(readStartArgument("GRPC_CHANNELS", "1")),
+                Long.parseLong(readStartArgument("GRPC_IDLE_TIMEOUT_MS", "0")),
+                Long.parseLong(readStartArgument("GRPC_KEEPALIVE_MS", "0"))));
+    }
+
+    GrpcClient(String principal, String secret, String provider, GrpcChannelPool channels) {
+        this.credentials = new WsseCallCredentials(principal, secret,
+                Long.parseLong(readStartArgument("GRPC_WSSE_VALIDITY_MS", "0")));
         this.provider = provider;
+        this.channels = channels;
+        long deadlineMs = Long.parseLong(readStartArgument("GRPC_DEADLINE_MS", "30000"));
+        for (GrpcOperation operation : GrpcOperation.values()) {
+            deadlinesMs.set(operation.ordinal(), deadlineMs);
+            latencies.put(operation, new LatencyHistogram());
+        }
     }
 
     GrpcClient(String provider) {
@@ -92,123 +121,438 @@ class GrpcClient {
                 readStartArgument("GRPC_PROVIDER", "none"));
     }
 
-    private CloseableChannel channel() throws NoSuchAlgorithmException {
-        ManagedChannelBuilder<?> channelBuilder = ManagedChannelBuilder
-                .forAddress(host, port);
-        if (!tls)
-            channelBuilder.usePlaintext();
+    /**
+     * The channels are shared, so the WSSE token is attached to every call
+     * rather than to the channel
+     */
+    private TrackerGrpc.TrackerBlockingStub blockingStub(@Nonnull GrpcOperation operation) {
+        return configure(TrackerGrpc.newBlockingStub(channels.get()), operation);
+    }
 
-        Metadata headers = new Metadata();
-        String token = Wsse.getToken(principal, secret);
-        headers.put(wsseKey, token);
-        channelBuilder.intercept(MetadataUtils.newAttachHeadersInterceptor(headers));
+    private TrackerGrpc.TrackerStub asyncStub(@Nonnull GrpcOperation operation) {
+        return configure(TrackerGrpc.newStub(channels.get()), operation);
+    }
 
-        return new CloseableChannel(channelBuilder.build());
+    /**
+     * The deadline is counted from now, so the stubs are created per call
+     */
+    private <S extends AbstractStub<S>> S configure(S stub, @Nonnull GrpcOperation operation) {
+        // the breaker is the outer interceptor: the rejected calls do not get to the latencies
+        stub = stub.withCallCredentials(credentials)
+                .withOption(OPERATION, operation)
+                .withInterceptors(latencyInterceptor);
+        CircuitBreaker breaker = circuitBreaker;
+        if (breaker != null)
+            stub = stub.withInterceptors(breaker.interceptor());
+        long deadlineMs = deadlinesMs.get(operation.ordinal());
+        return deadlineMs > 0 ? stub.withDeadlineAfter(deadlineMs, TimeUnit.MILLISECONDS) : stub;
     }
 
-    public String ping(@Nullable String payload) throws Exception {
+    /**
+     * @param deadlineMs the time the calls of the operation may take, 0 - no limit
+     */
+    void setDeadlineMs(@Nonnull GrpcOperation operation, long deadlineMs) {
+        deadlinesMs.set(operation.ordinal(), deadlineMs);
+    }
+
+    long getDeadlineMs(@Nonnull GrpcOperation operation) {
+        return deadlinesMs.get(operation.ordinal());
+    }
+
+    @Nonnull
+    LatencyHistogram getLatency(@Nonnull GrpcOperation operation) {
+        return latencies.get(operation);
+    }
+
+    long getReconnects() {
+        return channels.reconnects.sum();
+    }
+
+    /**
+     * @param hedgingPolicy hedges generateTrackerId and testTrackerId, null - none
+     */
+    synchronized void setHedgingPolicy(@Nullable HedgingPolicy hedgingPolicy) {
+        if (hedgingPolicy != null && hedgeTimer == null)
+            hedgeTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "waytoday-hedge");
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.hedgingPolicy = hedgingPolicy;
+    }
+
+    /**
+     * Starts the attempt and, if it has not completed within the hedging delay, the second one,
+     * the round-robin pool sends it over the next channel. The first response wins and the other
+     * attempt is cancelled, a failure ends the call unless the other attempt is still in flight.
+     */
+    private <T> CompletableFuture<T> hedged(@Nonnull GrpcOperation operation, @Nonnull Supplier<CompletableFuture<T>> attempt) {
+        HedgingPolicy policy = hedgingPolicy;
+        ScheduledExecutorService timer;
+        synchronized (this) {
+            timer = hedgeTimer;
+        }
+        if (policy == null || timer == null)
+            return attempt.get();
+        policy.onCall();
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final List<CompletableFuture<T>> attempts = new CopyOnWriteArrayList<>();
+        final AtomicInteger inFlight = new AtomicInteger(1);
+        final Runnable start = () -> {
+            CompletableFuture<T> future;
+            try {
+                future = attempt.get();
+            } catch (RuntimeException e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            attempts.add(future);
+            future.whenComplete((value, e) -> {
+                if (e == null)
+                    result.complete(value);
+                else if (inFlight.decrementAndGet() == 0)
+                    result.completeExceptionally(e);
+            });
+            // the result might have been completed before the attempt was added
+            if (result.isDone())
+                future.cancel(true);
+        };
+        start.run();
+        if (!result.isDone()) {
+            try {
+                ScheduledFuture<?> hedge = timer.schedule(() -> {
+                    if (result.isDone() || !policy.tryHedge())
+                        return;
+                    // do not hedge the call failed already
+                    if (inFlight.getAndUpdate(n -> n == 0 ? 0 : n + 1) == 0)
+                        return;
+                    start.run();
+                }, policy.delayMs(getLatency(operation)), TimeUnit.MILLISECONDS);
+                result.whenComplete((value, e) -> hedge.cancel(false));
+            } catch (RejectedExecutionException e) {
+                // closed
+            }
+        }
+        result.whenComplete((value, e) -> attempts.forEach(future -> future.cancel(true)));
+        return result;
+    }
+
+    /**
+     * Waits for the hedged call throwing its error as the blocking stubs do
+     */
+    private static <T> T await(@Nonnull CompletableFuture<T> call) throws Exception {
+        try {
+            return call.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        } catch (InterruptedException e) {
+            call.cancel(true);
+            throw e;
+        }
+    }
+
+    private final class LatencyInterceptor implements ClientInterceptor {
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+                                                                   CallOptions callOptions, Channel next) {
+            final GrpcOperation operation = callOptions.getOption(OPERATION);
+            final LatencyHistogram latency = latencies.get(operation);
+            ClientCall<ReqT, RespT> call = next.newCall(method, callOptions);
+            if (latency == null)
+                return call;
+            return new ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(call) {
+                @Override
+                public void sendMessage(ReqT message) {
+                    // the size is memoized by the message and reused by the marshaller
+                    if (message instanceof MessageLite)
+                        bytesSent.add(((MessageLite) message).getSerializedSize());
+                    super.sendMessage(message);
+                }
+
+                @Override
+                public void start(Listener<RespT> responseListener, Metadata headers) {
+                    final long start = System.nanoTime();
+                    final Object event = JfrEvents.rpcStarted();
+                    super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT>(responseListener) {
+                        @Override
+                        public void onClose(Status status, Metadata trailers) {
+                            latency.record(System.nanoTime() - start);
+                            JfrEvents.rpcEnded(event, operation, status.getCode().name());
+                            super.onClose(status, trailers);
+                        }
+                    }, headers);
+                }
+            };
+        }
+    }
+
+    /**
+     * @param circuitBreaker guards all the calls, null - none
+     */
+    void setCircuitBreaker(@Nullable CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Shuts down the shared channels, the calls in flight are allowed to complete
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (hedgeTimer != null)
+                hedgeTimer.shutdownNow();
+        }
+        channels.close();
+    }
+
+    private static TrackerOuterClass.PingRequest pingRequest(@Nullable String payload) {
         final TrackerOuterClass.PingRequest.Builder reqBuilder = TrackerOuterClass
                 .PingRequest
                 .newBuilder();
         if (payload != null) {
             reqBuilder.setPayload(payload);
         }
-
-        final TrackerOuterClass.PingRequest req = reqBuilder.build();
-
-        try (CloseableChannel channel = channel()) {
-            TrackerGrpc.TrackerBlockingStub stub = TrackerGrpc.newBlockingStub(channel.get);
-            TrackerOuterClass.PongResponse response = stub.ping(req);
-            return response.getPayload();
-        }
+        return reqBuilder.build();
     }
 
-    public String generateTrackerId(@Nullable String prevId) throws Exception {
+    private static TrackerOuterClass.GenerateTrackerIDRequest generateTrackerIdRequest(@Nullable String prevId) {
         final TrackerOuterClass.GenerateTrackerIDRequest.Builder reqBuilder = TrackerOuterClass
                 .GenerateTrackerIDRequest
                 .newBuilder();
-
         if (prevId != null) {
             reqBuilder.setPrevTid(prevId);
         }
+        return reqBuilder.build();
+    }
 
-        final TrackerOuterClass.GenerateTrackerIDRequest req = reqBuilder.build();
+    private static TrackerOuterClass.TestTrackerIDRequest testTrackerIdRequest(@Nonnull String tid) {
+        return TrackerOuterClass
+                .TestTrackerIDRequest
+                .newBuilder()
+                .setTid(tid)
+                .build();
+    }
 
-        try (CloseableChannel channel = channel()) {
-            TrackerGrpc.TrackerBlockingStub stub = TrackerGrpc.newBlockingStub(channel.get);
-            TrackerOuterClass.GenerateTrackerIDResponse response = stub.generateTrackerID(req);
-            return response.getTid();
-        }
+    private static TrackerOuterClass.FreeTrackerIDRequest freeTrackerIdRequest(@Nonnull String tid) {
+        return TrackerOuterClass
+                .FreeTrackerIDRequest
+                .newBuilder()
+                .setTid(tid)
+                .build();
+    }
+
+    private static TrackerOuterClass.GetLocationsRequest getLocationsRequest(@Nonnull String tid, int limit) {
+        return TrackerOuterClass
+                .GetLocationsRequest
+                .newBuilder()
+                .setTid(tid)
+                .setLimit(limit)
+                .build();
+    }
+
+    private static LocationBatch locationBatch(TrackerOuterClass.GetLocationsResponse response) {
+        LocationBatch batch = new LocationBatch(response.getItemsCount());
+        LocationGrpcBridge.fromProto(response.getItemsList(), batch);
+        return batch;
+    }
+
+    public String ping(@Nullable String payload) throws Exception {
+        TrackerOuterClass.PongResponse response = blockingStub(GrpcOperation.PING).ping(pingRequest(payload));
+        return response.getPayload();
+    }
+
+    public String generateTrackerId(@Nullable String prevId) throws Exception {
+        if (hedgingPolicy != null)
+            return await(generateTrackerIdAsync(prevId, null));
+        TrackerOuterClass.GenerateTrackerIDResponse response = blockingStub(GrpcOperation.GENERATE_TRACKER_ID).generateTrackerID(generateTrackerIdRequest(prevId));
+        return response.getTid();
     }
     public String generateTrackerId() throws Exception {
        return generateTrackerId(null);
     }
 
     public Boolean testTrackerId(@Nonnull String tid) throws Exception {
-        final TrackerOuterClass.TestTrackerIDRequest.Builder reqBuilder = TrackerOuterClass
-                .TestTrackerIDRequest
-                .newBuilder()
-                .setTid(tid);
+        if (hedgingPolicy != null)
+            return await(testTrackerIdAsync(tid, null));
+        TrackerOuterClass.TestTrackerIDResponse response = blockingStub(GrpcOperation.TEST_TRACKER_ID).testTrackerID(testTrackerIdRequest(tid));
+        return response.getOk();
+    }
+
+    public Boolean freeTrackerId(@Nonnull String tid) throws Exception {
+        TrackerOuterClass.FreeTrackerIDResponse response = blockingStub(GrpcOperation.FREE_TRACKER_ID).freeTrackerID(freeTrackerIdRequest(tid));
+        return response.getOk();
+    }
 
-        final TrackerOuterClass.TestTrackerIDRequest req = reqBuilder.build();
+    public List<Location> getLocations(@Nonnull String tid, int limit) throws Exception {
+        ArrayList<Location> locations = new ArrayList<>();
+        blockingStub(GrpcOperation.GET_LOCATIONS).getLocations(getLocationsRequest(tid, limit)).getItemsList().forEach(item ->
+                locations.add(LocationGrpcBridge.fromProto(item))
+        );
+        return locations;
+    }
 
-        try (CloseableChannel channel = channel()) {
-            TrackerGrpc.TrackerBlockingStub stub = TrackerGrpc.newBlockingStub(channel.get);
-            TrackerOuterClass.TestTrackerIDResponse response = stub.testTrackerID(req);
-            return response.getOk();
-        }
+    /**
+     * Same as getLocations but fills the columnar batch instead of creating a Location per item
+     */
+    public LocationBatch getLocationBatch(@Nonnull String tid, int limit) throws Exception {
+        return locationBatch(blockingStub(GrpcOperation.GET_LOCATIONS).getLocations(getLocationsRequest(tid, limit)));
     }
 
-    public Boolean freeTrackerId(@Nonnull String tid) throws Exception {
-        final TrackerOuterClass.FreeTrackerIDRequest.Builder reqBuilder = TrackerOuterClass
-                .FreeTrackerIDRequest
+    TrackerOuterClass.AddLocationsRequest addLocationsRequest(@Nonnull String tid, @Nonnull List<Location> locations) {
+        final TrackerOuterClass.AddLocationsRequest.Builder reqBuilder = TrackerOuterClass
+                .AddLocationsRequest
                 .newBuilder()
                 .setTid(tid);
-
-        final TrackerOuterClass.FreeTrackerIDRequest req = reqBuilder.build();
-
-        try (CloseableChannel channel = channel()) {
-            TrackerGrpc.TrackerBlockingStub stub = TrackerGrpc.newBlockingStub(channel.get);
-            TrackerOuterClass.FreeTrackerIDResponse response = stub.freeTrackerID(req);
-            return response.getOk();
+        for (Location location : locations) {
+            reqBuilder.addLocations(LocationGrpcBridge.toProto(location, provider));
         }
+        return reqBuilder.build();
     }
 
-    public List<Location> getLocations(@Nonnull String tid, int limit) throws Exception {
-        final TrackerOuterClass.GetLocationsRequest.Builder reqBuilder = TrackerOuterClass
-                .GetLocationsRequest
+    public Boolean addLocationBatch(@Nonnull String tid, @Nonnull LocationBatch locations) throws Exception {
+        final TrackerOuterClass.AddLocationsRequest.Builder reqBuilder = TrackerOuterClass
+                .AddLocationsRequest
                 .newBuilder()
-                .setTid(tid)
-                .setLimit(limit);
+                .setTid(tid);
+        LocationBatch.Cursor cursor = locations.cursor();
+        while (cursor.next()) {
+            reqBuilder.addLocations(LocationGrpcBridge.toProto(cursor, provider));
+        }
 
-        final TrackerOuterClass.GetLocationsRequest req = reqBuilder.build();
+        TrackerOuterClass.AddLocationResponse response = blockingStub(GrpcOperation.ADD_LOCATIONS).addLocations(reqBuilder.build());
+        return response.getOk();
+    }
 
-        try (CloseableChannel channel = channel()) {
-            TrackerGrpc.TrackerBlockingStub stub = TrackerGrpc.newBlockingStub(channel.get);
-            ArrayList<Location> locations = new ArrayList<>();
-            stub.getLocations(req).getItemsList().forEach(item ->
-                    locations.add(LocationGrpcBridge.fromProto(item))
-            );
-            return locations;
+    /**
+     * Uploads the locations of several trackers with one call
+     * Every location carries the id of its tracker, the request is addressed to the first one.
+     */
+    public Boolean addLocationsOfTrackers(@Nonnull Map<String, List<Location>> locationsByTid) throws Exception {
+        final TrackerOuterClass.AddLocationsRequest.Builder reqBuilder = TrackerOuterClass
+                .AddLocationsRequest
+                .newBuilder();
+        for (Map.Entry<String, List<Location>> entry : locationsByTid.entrySet()) {
+            if (reqBuilder.getTid().isEmpty())
+                reqBuilder.setTid(entry.getKey());
+            for (Location location : entry.getValue()) {
+                reqBuilder.addLocations(LocationGrpcBridge.toProtoBuilder(location, provider).setTid(entry.getKey()));
+            }
         }
+
+        TrackerOuterClass.AddLocationResponse response = blockingStub(GrpcOperation.ADD_LOCATIONS).addLocations(reqBuilder.build());
+        return response.getOk();
     }
 
     public Boolean addLocations(@Nonnull String tid, @Nonnull List<Location> locations) throws Exception {
-        final TrackerOuterClass.AddLocationsRequest.Builder reqBuilder = TrackerOuterClass
-                .AddLocationsRequest
-                .newBuilder()
-                .setTid(tid);
-        for (Location location : locations) {
-            reqBuilder.addLocations(LocationGrpcBridge.toProto(location, provider));
+        final TrackerOuterClass.AddLocationsRequest req = addLocationsRequest(tid, locations);
+
+        TrackerGrpc.TrackerBlockingStub stub = blockingStub(GrpcOperation.ADD_LOCATIONS);
+        TrackerOuterClass.AddLocationResponse response = stub.addLocations(req);
+        return response.getOk();
+    }
+
+    /**
+     * Completes the future with the result of a unary call
+     * Cancelling the future cancels the call.
+     */
+    private static final class UnaryObserver<ReqT, RespT, T> implements ClientResponseObserver<ReqT, RespT> {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        private final Function<RespT, T> result;
+
+        UnaryObserver(Function<RespT, T> result) {
+            this.result = result;
+        }
+
+        @Override
+        public void beforeStart(ClientCallStreamObserver<ReqT> call) {
+            future.whenComplete((value, error) -> {
+                if (future.isCancelled())
+                    call.cancel("Cancelled by the client", null);
+            });
+        }
+
+        @Override
+        public void onNext(RespT response) {
+            try {
+                future.complete(result.apply(response));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
         }
 
-        final TrackerOuterClass.AddLocationsRequest req = reqBuilder.build();
+        @Override
+        public void onError(Throwable t) {
+            future.completeExceptionally(t);
+        }
 
-        try (CloseableChannel channel = channel()) {
-            TrackerGrpc.TrackerBlockingStub stub = TrackerGrpc.newBlockingStub(channel.get);
-            TrackerOuterClass.AddLocationResponse response = stub.addLocations(req);
-            return response.getOk();
+        @Override
+        public void onCompleted() {
+            // a unary call always has a response before the completion
+            if (!future.isDone())
+                future.completeExceptionally(Status.INTERNAL.withDescription("No response").asRuntimeException());
         }
     }
 
+    /**
+     * @param executor runs the completion of the returned futures, null - the gRPC default one
+     */
+    private TrackerGrpc.TrackerStub asyncStub(@Nonnull GrpcOperation operation, @Nullable Executor executor) {
+        TrackerGrpc.TrackerStub stub = asyncStub(operation);
+        return executor == null ? stub : stub.withExecutor(executor);
+    }
+
+    /**
+     * Non-blocking versions of the calls, no thread is parked while the call is in flight
+     * The futures are completed with the call errors, cancelling them cancels the calls.
+     */
+    public CompletableFuture<String> pingAsync(@Nullable String payload, @Nullable Executor executor) {
+        UnaryObserver<TrackerOuterClass.PingRequest, TrackerOuterClass.PongResponse, String> observer =
+                new UnaryObserver<>(TrackerOuterClass.PongResponse::getPayload);
+        asyncStub(GrpcOperation.PING, executor).ping(pingRequest(payload), observer);
+        return observer.future;
+    }
+
+    public CompletableFuture<String> generateTrackerIdAsync(@Nullable String prevId, @Nullable Executor executor) {
+        return hedged(GrpcOperation.GENERATE_TRACKER_ID, () -> {
+            UnaryObserver<TrackerOuterClass.GenerateTrackerIDRequest, TrackerOuterClass.GenerateTrackerIDResponse, String> observer =
+                    new UnaryObserver<>(TrackerOuterClass.GenerateTrackerIDResponse::getTid);
+            asyncStub(GrpcOperation.GENERATE_TRACKER_ID, executor).generateTrackerID(generateTrackerIdRequest(prevId), observer);
+            return observer.future;
+        });
+    }
+
+    public CompletableFuture<Boolean> testTrackerIdAsync(@Nonnull String tid, @Nullable Executor executor) {
+        return hedged(GrpcOperation.TEST_TRACKER_ID, () -> {
+            UnaryObserver<TrackerOuterClass.TestTrackerIDRequest, TrackerOuterClass.TestTrackerIDResponse, Boolean> observer =
+                    new UnaryObserver<>(TrackerOuterClass.TestTrackerIDResponse::getOk);
+            asyncStub(GrpcOperation.TEST_TRACKER_ID, executor).testTrackerID(testTrackerIdRequest(tid), observer);
+            return observer.future;
+        });
+    }
+
+    public CompletableFuture<Boolean> freeTrackerIdAsync(@Nonnull String tid, @Nullable Executor executor) {
+        UnaryObserver<TrackerOuterClass.FreeTrackerIDRequest, TrackerOuterClass.FreeTrackerIDResponse, Boolean> observer =
+                new UnaryObserver<>(TrackerOuterClass.FreeTrackerIDResponse::getOk);
+        asyncStub(GrpcOperation.FREE_TRACKER_ID, executor).freeTrackerID(freeTrackerIdRequest(tid), observer);
+        return observer.future;
+    }
+
+    public CompletableFuture<LocationBatch> getLocationBatchAsync(@Nonnull String tid, int limit, @Nullable Executor executor) {
+        UnaryObserver<TrackerOuterClass.GetLocationsRequest, TrackerOuterClass.GetLocationsResponse, LocationBatch> observer =
+                new UnaryObserver<>(GrpcClient::locationBatch);
+        asyncStub(GrpcOperation.GET_LOCATIONS, executor).getLocations(getLocationsRequest(tid, limit), observer);
+        return observer.future;
+    }
+
+    public CompletableFuture<Boolean> addLocationsAsync(@Nonnull String tid, @Nonnull List<Location> locations, @Nullable Executor executor) {
+        UnaryObserver<TrackerOuterClass.AddLocationsRequest, TrackerOuterClass.AddLocationResponse, Boolean> observer =
+                new UnaryObserver<>(TrackerOuterClass.AddLocationResponse::getOk);
+        asyncStub(GrpcOperation.ADD_LOCATIONS, executor).addLocations(addLocationsRequest(tid, locations), observer);
+        return observer.future;
+    }
+
+    public CompletableFuture<Boolean> addLocationsAsync(@Nonnull String tid, @Nonnull List<Location> locations) {
+        return addLocationsAsync(tid, locations, null);
+    }
 }
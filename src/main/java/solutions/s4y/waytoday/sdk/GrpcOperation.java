@@ -0,0 +1,8 @@
+package solutions.s4y.waytoday.sdk;
+
+/**
+ * The calls to the WayToday server, every one has its own deadline and latency histogram
+ */
+public enum GrpcOperation {
+    ADD_LOCATIONS, GET_LOCATIONS, GENERATE_TRACKER_ID, TEST_TRACKER_ID, FREE_TRACKER_ID, PING
+}
@@ -0,0 +1,66 @@
+package solutions.s4y.waytoday.sdk;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * When to send the second attempt of a slow tracker id call
+ * The hedge is sent after the fixed delay or, once enough calls are recorded, after the
+ * given percentile of the latencies of the operation. The hedges are limited to maxHedgeRatio
+ * of the calls: every call earns that part of a hedge, a hedge spends a whole one.
+ */
+public final class HedgingPolicy {
+    private static final long MILLI = 1000;
+    // the latencies recorded before the percentile is trusted
+    static final long MIN_CALLS = 20;
+
+    private final long delayMs;
+    private final double percentile;
+    private final long ratio;
+    private final long maxCredits;
+    // in the thousandths of a hedge
+    private final AtomicLong credits = new AtomicLong();
+
+    /**
+     * Hedges after the fixed delay
+     */
+    public HedgingPolicy(long delayMs, double maxHedgeRatio) {
+        this(delayMs, 0, maxHedgeRatio);
+    }
+
+    /**
+     * @param delayMs       the delay before the hedge until the latencies are known
+     * @param percentile    0 - always hedge after delayMs, i.e. 95 - after the p95 of the operation
+     * @param maxHedgeRatio the part of the calls allowed to be hedged, i.e. 0.1 - at most 10% extra calls
+     */
+    public HedgingPolicy(long delayMs, double percentile, double maxHedgeRatio) {
+        if (delayMs < 0 || percentile < 0 || percentile >= 100 || maxHedgeRatio <= 0 || maxHedgeRatio > 1)
+            throw new IllegalArgumentException("Invalid hedging policy");
+        this.delayMs = delayMs;
+        this.percentile = percentile;
+        this.ratio = Math.round(maxHedgeRatio * MILLI);
+        // let a burst of slow calls after a quiet period be hedged
+        this.maxCredits = 10 * MILLI;
+    }
+
+    long delayMs(@Nonnull LatencyHistogram latency) {
+        if (percentile == 0 || latency.getCount() < MIN_CALLS)
+            return delayMs;
+        return Math.max(1, latency.getPercentileMicros(percentile) / 1000);
+    }
+
+    void onCall() {
+        if (credits.get() < maxCredits)
+            credits.updateAndGet(c -> Math.min(maxCredits, c + ratio));
+    }
+
+    boolean tryHedge() {
+        for (; ; ) {
+            long c = credits.get();
+            if (c < MILLI)
+                return false;
+            if (credits.compareAndSet(c, c - MILLI))
+                return true;
+        }
+    }
+}
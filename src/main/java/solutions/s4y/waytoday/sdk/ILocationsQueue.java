@@ -0,0 +1,45 @@
+package solutions.s4y.waytoday.sdk;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+
+/**
+ * The queue of the locations waiting for the upload
+ * Every location gets a position which grows monotonically: the uploader peeks
+ * a pack from the head and removes it by the position once the server acknowledges
+ * it, so the locations evicted while the pack was in flight are not removed twice.
+ * Implementations must be thread safe.
+ */
+public interface ILocationsQueue extends AutoCloseable {
+    /**
+     * Adds the location to the tail evicting the oldest ones if the queue is full
+     * @return the number of the evicted locations
+     */
+    int offer(@Nonnull Location location);
+
+    /**
+     * Copies up to max locations from the head without removing them
+     * @return the position of the first copied location
+     */
+    long peek(@Nonnull Collection<? super Location> into, int max);
+
+    /**
+     * Removes all the locations with the positions before end
+     */
+    void removeUpTo(long end);
+
+    int size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return the number of the locations evicted due to the overflow
+     */
+    long dropped();
+
+    @Override
+    default void close() {
+    }
+}
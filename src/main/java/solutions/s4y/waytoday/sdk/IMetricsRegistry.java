@@ -0,0 +1,24 @@
+package solutions.s4y.waytoday.sdk;
+
+import javax.annotation.Nonnull;
+import java.util.function.ToLongFunction;
+
+/**
+ * Interface for exporting the metrics of the client to a monitoring system
+ * The meters are read from the client when the monitoring system polls them,
+ * the registry must not keep the objects from being collected longer than the client lives.
+ * MicrometerMetricsRegistry exports them to Micrometer.
+ */
+public interface IMetricsRegistry {
+    /**
+     * The current value, i.e. the queue depth
+     */
+    <T> void gauge(@Nonnull String name, @Nonnull T obj, @Nonnull ToLongFunction<T> value);
+
+    /**
+     * The monotonic total, the rate is derived by the monitoring system
+     */
+    <T> void counter(@Nonnull String name, @Nonnull T obj, @Nonnull ToLongFunction<T> value);
+
+    void latency(@Nonnull String name, @Nonnull GrpcOperation operation, @Nonnull LatencyHistogram histogram);
+}
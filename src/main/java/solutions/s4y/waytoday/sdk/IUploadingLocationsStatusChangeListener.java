@@ -7,4 +7,11 @@ package solutions.s4y.waytoday.sdk;
 @FunctionalInterface
 public interface IUploadingLocationsStatusChangeListener {
     void onStatusChange(UploadingLocationsStatus status);
+
+    /**
+     * Called when the circuit breaker of the client changes its state,
+     * the uploads fail at once with ERROR status while it is open
+     */
+    default void onCircuitBreakerStateChange(CircuitBreaker.State state) {
+    }
 }
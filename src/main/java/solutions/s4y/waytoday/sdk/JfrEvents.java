@@ -0,0 +1,243 @@
+package solutions.s4y.waytoday.sdk;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JDK Flight Recorder events of the upload pipeline, made by jdk.jfr.EventFactory looked up
+ * by reflection, the SDK is built for Java 8
+ * Nothing but a static check is done until Flight Recorder is initialized, the event types are
+ * registered on the first use after that and show up in the WayToday category of the recordings.
+ * The events spanning a call or a dispatch are begun by the *Started methods and committed
+ * by the *Ended ones, so their duration lines up with the GC and safepoint events.
+ */
+final class JfrEvents {
+    private static final String CATEGORY = "WayToday";
+
+    @Nullable
+    private static final MethodHandle IS_INITIALIZED;
+    @Nullable
+    private static final Method CREATE;
+    @Nullable
+    private static final Constructor<?> ANNOTATION_ELEMENT;
+    @Nullable
+    private static final Constructor<?> VALUE_DESCRIPTOR;
+    @Nullable
+    private static final Class<? extends Annotation> NAME;
+    @Nullable
+    private static final Class<? extends Annotation> LABEL;
+    @Nullable
+    private static final Class<? extends Annotation> CATEGORY_ANNOTATION;
+    @Nullable
+    private static final MethodHandle NEW_EVENT;
+    @Nullable
+    private static final MethodHandle IS_ENABLED;
+    @Nullable
+    private static final MethodHandle BEGIN;
+    @Nullable
+    private static final MethodHandle SET;
+    @Nullable
+    private static final MethodHandle COMMIT;
+
+    static {
+        MethodHandle isInitialized = null;
+        Method create = null;
+        Constructor<?> annotationElement = null;
+        Constructor<?> valueDescriptor = null;
+        Class<? extends Annotation> name = null;
+        Class<? extends Annotation> label = null;
+        Class<? extends Annotation> category = null;
+        MethodHandle newEvent = null;
+        MethodHandle isEnabled = null;
+        MethodHandle begin = null;
+        MethodHandle set = null;
+        MethodHandle commit = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            isInitialized = lookup.unreflect(Class.forName("jdk.jfr.FlightRecorder").getMethod("isInitialized"));
+            Class<?> factory = Class.forName("jdk.jfr.EventFactory");
+            create = factory.getMethod("create", List.class, List.class);
+            annotationElement = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+            valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class);
+            name = Class.forName("jdk.jfr.Name").asSubclass(Annotation.class);
+            label = Class.forName("jdk.jfr.Label").asSubclass(Annotation.class);
+            category = Class.forName("jdk.jfr.Category").asSubclass(Annotation.class);
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            newEvent = lookup.unreflect(factory.getMethod("newEvent"));
+            isEnabled = lookup.unreflect(event.getMethod("isEnabled"));
+            begin = lookup.unreflect(event.getMethod("begin"));
+            set = lookup.unreflect(event.getMethod("set", int.class, Object.class));
+            commit = lookup.unreflect(event.getMethod("commit"));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            isInitialized = null;
+        }
+        IS_INITIALIZED = isInitialized;
+        CREATE = create;
+        ANNOTATION_ELEMENT = annotationElement;
+        VALUE_DESCRIPTOR = valueDescriptor;
+        NAME = name;
+        LABEL = label;
+        CATEGORY_ANNOTATION = category;
+        NEW_EVENT = newEvent;
+        IS_ENABLED = isEnabled;
+        BEGIN = begin;
+        SET = set;
+        COMMIT = commit;
+    }
+
+    static final EventType PACK_ASSEMBLED = new EventType("PackAssembled", "Pack Assembled",
+            new String[]{"locations", "bytes", "packsInFlight"}, new Class<?>[]{int.class, long.class, int.class});
+    static final EventType RPC = new EventType("Rpc", "gRPC Call",
+            new String[]{"operation", "status"}, new Class<?>[]{String.class, String.class});
+    static final EventType QUEUE_OVERFLOW = new EventType("QueueOverflow", "Queue Overflow",
+            new String[]{"evicted", "queueSize"}, new Class<?>[]{int.class, int.class});
+    static final EventType LISTENER_DISPATCH = new EventType("ListenerDispatch", "Listener Dispatch",
+            new String[]{"kind", "listeners"}, new Class<?>[]{String.class, int.class});
+    static final EventType CHANNEL_CREATED = new EventType("ChannelCreated", "Channel Created",
+            new String[]{"index", "poolSize"}, new Class<?>[]{int.class, int.class});
+
+    private JfrEvents() {
+    }
+
+    static boolean isSupported() {
+        return IS_INITIALIZED != null;
+    }
+
+    /**
+     * @param packsInFlight the packs sent and not acknowledged yet, this one excluded
+     */
+    static void packAssembled(int locations, long bytes, int packsInFlight) {
+        Object event = PACK_ASSEMBLED.begin();
+        if (event != null)
+            commit(event, locations, bytes, packsInFlight);
+    }
+
+    /**
+     * @return the begun event or null if it is not recorded
+     */
+    @Nullable
+    static Object rpcStarted() {
+        return RPC.begin();
+    }
+
+    static void rpcEnded(@Nullable Object event, @Nullable GrpcOperation operation, @Nonnull String status) {
+        if (event != null)
+            commit(event, operation == null ? "" : operation.name(), status);
+    }
+
+    static void queueOverflow(int evicted, int queueSize) {
+        Object event = QUEUE_OVERFLOW.begin();
+        if (event != null)
+            commit(event, evicted, queueSize);
+    }
+
+    @Nullable
+    static Object listenersStarted() {
+        return LISTENER_DISPATCH.begin();
+    }
+
+    static void listenersEnded(@Nullable Object event, @Nonnull String kind, int listeners) {
+        if (event != null)
+            commit(event, kind, listeners);
+    }
+
+    @Nullable
+    static Object channelStarted() {
+        return CHANNEL_CREATED.begin();
+    }
+
+    static void channelEnded(@Nullable Object event, int index, int poolSize) {
+        if (event != null)
+            commit(event, index, poolSize);
+    }
+
+    private static void commit(@Nonnull Object event, Object... values) {
+        if (SET == null || COMMIT == null)
+            return;
+        try {
+            for (int i = 0; i < values.length; i++) {
+                SET.invoke(event, i, values[i]);
+            }
+            COMMIT.invoke(event);
+        } catch (Throwable e) {
+            // ignore, the tracing must not break the uploads
+        }
+    }
+
+    private static boolean isInitialized() {
+        if (IS_INITIALIZED == null)
+            return false;
+        try {
+            return (boolean) IS_INITIALIZED.invoke();
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    static final class EventType {
+        private final String name;
+        private final String label;
+        private final String[] fields;
+        private final Class<?>[] types;
+        @Nullable
+        private volatile Object factory;
+        private volatile boolean unavailable;
+
+        private EventType(String name, String label, String[] fields, Class<?>[] types) {
+            this.name = "solutions.s4y.waytoday." + name;
+            this.label = label;
+            this.fields = fields;
+            this.types = types;
+        }
+
+        @Nullable
+        Object begin() {
+            if (unavailable || !isInitialized())
+                return null;
+            Object f = factory;
+            if (f == null) {
+                f = register();
+                if (f == null)
+                    return null;
+            }
+            try {
+                Object event = NEW_EVENT.invoke(f);
+                if (!(boolean) IS_ENABLED.invoke(event))
+                    return null;
+                BEGIN.invoke(event);
+                return event;
+            } catch (Throwable e) {
+                unavailable = true;
+                return null;
+            }
+        }
+
+        @Nullable
+        private synchronized Object register() {
+            if (factory != null || unavailable)
+                return factory;
+            try {
+                List<Object> annotations = Arrays.asList(
+                        ANNOTATION_ELEMENT.newInstance(NAME, name),
+                        ANNOTATION_ELEMENT.newInstance(LABEL, label),
+                        ANNOTATION_ELEMENT.newInstance(CATEGORY_ANNOTATION, new String[]{CATEGORY}));
+                List<Object> descriptors = new ArrayList<>(fields.length);
+                for (int i = 0; i < fields.length; i++) {
+                    descriptors.add(VALUE_DESCRIPTOR.newInstance(types[i], fields[i]));
+                }
+                factory = CREATE.invoke(null, annotations, descriptors);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                unavailable = true;
+            }
+            return factory;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package solutions.s4y.waytoday.sdk;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of the call latencies in microseconds
+ * Every power of two is split into 8 buckets, so the percentiles are
+ * within 12.5% of the real latencies.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+    private final AtomicLongArray counts = new AtomicLongArray(64 * SUB);
+    private final LongAdder totalMicros = new LongAdder();
+
+    void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(index(micros));
+        totalMicros.add(micros);
+    }
+
+    static int index(long micros) {
+        int exp = 63 - Long.numberOfLeadingZeros(micros);
+        if (exp < SUB_BITS)
+            return (int) micros;
+        return ((exp - SUB_BITS + 1) << SUB_BITS) + (int) ((micros >>> (exp - SUB_BITS)) - SUB);
+    }
+
+    /**
+     * @return the largest latency of the bucket
+     */
+    static long highest(int index) {
+        if (index < SUB)
+            return index;
+        int shift = (index >> SUB_BITS) - 1;
+        return ((long) (SUB + (index & (SUB - 1)) + 1) << shift) - 1;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile 0..100, i.e. 99.9
+     * @return the latency not exceeded by that percentile of the calls, 0 if none recorded
+     */
+    public long getPercentileMicros(double percentile) {
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return highest(i);
+        }
+        return highest(snapshot.length - 1);
+    }
+
+    /**
+     * @return the sum of the recorded latencies, exact unlike the percentiles
+     */
+    public long getTotalMicros() {
+        return totalMicros.sum();
+    }
+
+    public long getMaxMicros() {
+        for (int i = counts.length() - 1; i >= 0; i--) {
+            if (counts.get(i) > 0)
+                return highest(i);
+        }
+        return 0;
+    }
+
+    /**
+     * @return the copy of the recorded latencies, the latencies recorded meanwhile may be partially in
+     */
+    LatencyHistogram snapshot() {
+        LatencyHistogram copy = new LatencyHistogram();
+        for (int i = 0; i < counts.length(); i++) {
+            copy.counts.set(i, counts.get(i));
+        }
+        copy.totalMicros.add(totalMicros.sum());
+        return copy;
+    }
+
+    /**
+     * @param earlier the snapshot taken before this one
+     * @return the latencies recorded between the snapshots
+     */
+    LatencyHistogram minus(LatencyHistogram earlier) {
+        LatencyHistogram delta = new LatencyHistogram();
+        for (int i = 0; i < counts.length(); i++) {
+            delta.counts.set(i, Math.max(0, counts.get(i) - earlier.counts.get(i)));
+        }
+        delta.totalMicros.add(Math.max(0, getTotalMicros() - earlier.getTotalMicros()));
+        return delta;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " p50=" + getPercentileMicros(50) + "us p99=" + getPercentileMicros(99)
+                + "us p99.9=" + getPercentileMicros(99.9) + "us max=" + getMaxMicros() + "us";
+    }
+}
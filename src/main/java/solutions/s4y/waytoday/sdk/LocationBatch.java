@@ -0,0 +1,298 @@
+package solutions.s4y.waytoday.sdk;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * Columnar batch of the locations for the long tracks
+ * The fields are kept in the parallel primitive arrays and tid, provider and sid are
+ * interned in the dictionary shared by the batch. A location costs about 50 bytes plus
+ * its id, against about 100 bytes plus 3-4 strings of a Location object, so the batch
+ * is only 3-5 times smaller, depending on the length of the ids. The id is kept as is
+ * because it is unique per location.
+ * The Cursor reads the batch without creating an object per location.
+ * lat, lon, alt, speed and acc are kept as ints, bear as shorts and batp as bytes,
+ * a column switches to longs on the first value out of its range, so any location
+ * the server sends is accepted. Not thread safe.
+ */
+public final class LocationBatch {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int size = 0;
+    private Column lat;
+    private Column lon;
+    private Column alt;
+    private Column speed;
+    private Column acc;
+    private long[] ts;
+    private Column bear;
+    private Column batp;
+    private boolean[] bats;
+    private String[] id;
+    private int[] tid;
+    private int[] provider;
+    private int[] sid;
+    private LocationCodec.Dictionary strings = new LocationCodec.Dictionary(Integer.MAX_VALUE);
+
+    /**
+     * The column of the narrow values widened to longs on the first value out of their range
+     */
+    private static final class Column {
+        private final long min;
+        private final long max;
+        private byte[] bytes;
+        private short[] shorts;
+        private int[] ints;
+        private long[] longs;
+
+        Column(int width, int capacity) {
+            switch (width) {
+                case Byte.BYTES:
+                    bytes = new byte[capacity];
+                    min = Byte.MIN_VALUE;
+                    max = Byte.MAX_VALUE;
+                    break;
+                case Short.BYTES:
+                    shorts = new short[capacity];
+                    min = Short.MIN_VALUE;
+                    max = Short.MAX_VALUE;
+                    break;
+                default:
+                    ints = new int[capacity];
+                    min = Integer.MIN_VALUE;
+                    max = Integer.MAX_VALUE;
+            }
+        }
+
+        long get(int index) {
+            if (ints != null)
+                return ints[index];
+            if (shorts != null)
+                return shorts[index];
+            if (bytes != null)
+                return bytes[index];
+            return longs[index];
+        }
+
+        void set(int index, long value, int size) {
+            if (longs == null && (value < min || value > max))
+                widen(size);
+            if (ints != null)
+                ints[index] = (int) value;
+            else if (shorts != null)
+                shorts[index] = (short) value;
+            else if (bytes != null)
+                bytes[index] = (byte) value;
+            else
+                longs[index] = value;
+        }
+
+        private void widen(int size) {
+            long[] wide = new long[capacity()];
+            for (int i = 0; i < size; i++) {
+                wide[i] = get(i);
+            }
+            bytes = null;
+            shorts = null;
+            ints = null;
+            longs = wide;
+        }
+
+        int capacity() {
+            if (ints != null)
+                return ints.length;
+            if (shorts != null)
+                return shorts.length;
+            if (bytes != null)
+                return bytes.length;
+            return longs.length;
+        }
+
+        void grow(int capacity) {
+            if (ints != null)
+                ints = Arrays.copyOf(ints, capacity);
+            else if (shorts != null)
+                shorts = Arrays.copyOf(shorts, capacity);
+            else if (bytes != null)
+                bytes = Arrays.copyOf(bytes, capacity);
+            else
+                longs = Arrays.copyOf(longs, capacity);
+        }
+    }
+
+    /**
+     * Flyweight view of a location of the batch
+     */
+    public final class Cursor {
+        private int index = -1;
+
+        /**
+         * Moves to the next location
+         * @return false if there is no more locations
+         */
+        public boolean next() {
+            if (index + 1 >= size)
+                return false;
+            index++;
+            return true;
+        }
+
+        public void moveTo(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+            this.index = index;
+        }
+
+        public int index() {
+            return index;
+        }
+
+        public String id() {
+            return LocationBatch.this.id[index];
+        }
+
+        public String tid() {
+            return strings.get(LocationBatch.this.tid[index]);
+        }
+
+        public long lat() {
+            return LocationBatch.this.lat.get(index);
+        }
+
+        public long lon() {
+            return LocationBatch.this.lon.get(index);
+        }
+
+        public long alt() {
+            return LocationBatch.this.alt.get(index);
+        }
+
+        public long bear() {
+            return LocationBatch.this.bear.get(index);
+        }
+
+        public long ts() {
+            return LocationBatch.this.ts[index];
+        }
+
+        public long batp() {
+            return LocationBatch.this.batp.get(index);
+        }
+
+        public boolean bats() {
+            return LocationBatch.this.bats[index];
+        }
+
+        public String provider() {
+            return strings.get(LocationBatch.this.provider[index]);
+        }
+
+        public long speed() {
+            return LocationBatch.this.speed.get(index);
+        }
+
+        public long acc() {
+            return LocationBatch.this.acc.get(index);
+        }
+
+        public String sid() {
+            return strings.get(LocationBatch.this.sid[index]);
+        }
+
+        @Nonnull
+        public Location toLocation() {
+            return new Location(id(), tid(), lat(), lon(), alt(), bear(), ts(), batp(), bats(), provider(), speed(), acc(), sid());
+        }
+    }
+
+    public LocationBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LocationBatch(int capacity) {
+        allocate(Math.max(1, capacity));
+    }
+
+    private void allocate(int capacity) {
+        lat = new Column(Integer.BYTES, capacity);
+        lon = new Column(Integer.BYTES, capacity);
+        alt = new Column(Integer.BYTES, capacity);
+        speed = new Column(Integer.BYTES, capacity);
+        acc = new Column(Integer.BYTES, capacity);
+        ts = new long[capacity];
+        bear = new Column(Short.BYTES, capacity);
+        batp = new Column(Byte.BYTES, capacity);
+        bats = new boolean[capacity];
+        id = new String[capacity];
+        tid = new int[capacity];
+        provider = new int[capacity];
+        sid = new int[capacity];
+    }
+
+    private void grow() {
+        int capacity = ts.length * 2;
+        lat.grow(capacity);
+        lon.grow(capacity);
+        alt.grow(capacity);
+        speed.grow(capacity);
+        acc.grow(capacity);
+        ts = Arrays.copyOf(ts, capacity);
+        bear.grow(capacity);
+        batp.grow(capacity);
+        bats = Arrays.copyOf(bats, capacity);
+        id = Arrays.copyOf(id, capacity);
+        tid = Arrays.copyOf(tid, capacity);
+        provider = Arrays.copyOf(provider, capacity);
+        sid = Arrays.copyOf(sid, capacity);
+    }
+
+    void add(String id, String tid, long lat, long lon, long alt, long bear, long ts, long batp, boolean bats, String provider, long speed, long acc, String sid) {
+        if (size == this.ts.length)
+            grow();
+        this.lat.set(size, lat, size);
+        this.lon.set(size, lon, size);
+        this.alt.set(size, alt, size);
+        this.speed.set(size, speed, size);
+        this.acc.set(size, acc, size);
+        this.ts[size] = ts;
+        this.bear.set(size, bear, size);
+        this.batp.set(size, batp, size);
+        this.bats[size] = bats;
+        this.id[size] = id;
+        this.tid[size] = strings.ref(tid);
+        this.provider[size] = strings.ref(provider);
+        this.sid[size] = strings.ref(sid);
+        size++;
+    }
+
+    public void add(@Nonnull Location location) {
+        add(location.id, location.tid, location.lat, location.lon, location.alt, location.bear, location.ts,
+                location.batp, location.bats, location.provider, location.speed, location.acc, location.sid);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(id, 0, size, null);
+        size = 0;
+        strings = new LocationCodec.Dictionary(Integer.MAX_VALUE);
+    }
+
+    @Nonnull
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    @Nonnull
+    public Location get(int index) {
+        Cursor cursor = new Cursor();
+        cursor.moveTo(index);
+        return cursor.toLocation();
+    }
+}
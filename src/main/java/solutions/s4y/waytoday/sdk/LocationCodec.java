@@ -0,0 +1,325 @@
+package solutions.s4y.waytoday.sdk;
+
+import javax.annotation.Nonnull;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of the locations
+ * The numeric fields take 32 bytes: lat, lon, alt, speed and acc are the fixed point
+ * ints produced by Location, ts is a long, bear a short, batp a byte and bats a flag.
+ * The strings follow either as 2 bytes references to a Dictionary (the fixed record
+ * for the in-memory and memory-mapped buffers) or inline (the self-contained record
+ * for the files). Only tid, provider and sid repeat across the locations, so the fixed
+ * record keeps the id inline: it takes 40 bytes plus the UTF-8 bytes of the id.
+ * A location with a numeric field out of these ranges does not fit the encoding,
+ * check it with fits() and fall back to protobuf.
+ */
+public final class LocationCodec {
+    public static final int NUMERIC_SIZE = 32;
+    // the fixed record without the bytes of the id
+    public static final int FIXED_SIZE = NUMERIC_SIZE + 4 * Short.BYTES;
+    private static final int EXPORT_MAGIC = 0x57544c31; // "WTL1"
+    private static final int MAX_INLINE_STRING = 0xffff;
+
+    /**
+     * Interned strings of the fixed records, the reference 0 is always ""
+     * Not thread safe.
+     */
+    public static final class Dictionary {
+        public static final int MAX_SIZE = 0x10000;
+        private final int maxSize;
+        private final List<String> strings = new ArrayList<>();
+        private final Map<String, Integer> refs = new HashMap<>();
+
+        public Dictionary() {
+            this(MAX_SIZE);
+        }
+
+        Dictionary(int maxSize) {
+            this.maxSize = maxSize;
+            strings.add("");
+            refs.put("", 0);
+        }
+
+        /**
+         * @return the reference of the string or -1 if the dictionary is full
+         */
+        public int ref(@Nonnull String string) {
+            Integer ref = refs.get(string);
+            if (ref != null)
+                return ref;
+            if (strings.size() >= maxSize)
+                return -1;
+            ref = strings.size();
+            strings.add(string);
+            refs.put(string, ref);
+            return ref;
+        }
+
+        /**
+         * @return true if all the strings get references, either existing or new ones
+         */
+        boolean hasRoom(@Nonnull String a, @Nonnull String b, @Nonnull String c) {
+            int added = 0;
+            if (!refs.containsKey(a))
+                added++;
+            if (!refs.containsKey(b) && !b.equals(a))
+                added++;
+            if (!refs.containsKey(c) && !c.equals(a) && !c.equals(b))
+                added++;
+            return strings.size() + added <= maxSize;
+        }
+
+        /**
+         * Forgets all the strings but ""
+         */
+        void clear() {
+            strings.subList(1, strings.size()).clear();
+            refs.clear();
+            refs.put("", 0);
+        }
+
+        @Nonnull
+        public String get(int ref) {
+            return strings.get(ref);
+        }
+
+        public int size() {
+            return strings.size();
+        }
+    }
+
+    private LocationCodec() {
+    }
+
+    private static boolean isInt(long value) {
+        return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+    }
+
+    public static boolean fits(@Nonnull Location location) {
+        return isInt(location.lat) && isInt(location.lon) && isInt(location.alt)
+                && isInt(location.speed) && isInt(location.acc)
+                && location.bear >= Short.MIN_VALUE && location.bear <= Short.MAX_VALUE
+                && location.batp >= Byte.MIN_VALUE && location.batp <= Byte.MAX_VALUE;
+    }
+
+    private static void putNumeric(@Nonnull Location location, @Nonnull ByteBuffer buffer) {
+        buffer.putInt((int) location.lat)
+                .putInt((int) location.lon)
+                .putInt((int) location.alt)
+                .putInt((int) location.speed)
+                .putInt((int) location.acc)
+                .putLong(location.ts)
+                .putShort((short) location.bear)
+                .put((byte) location.batp)
+                .put((byte) (location.bats ? 1 : 0));
+    }
+
+    /**
+     * @return the size of the fixed record or -1 if the location does not fit
+     */
+    public static int fixedSize(@Nonnull Location location) {
+        if (!fits(location))
+            return -1;
+        int length = utf8(location.id).length;
+        return length > MAX_INLINE_STRING ? -1 : FIXED_SIZE + length;
+    }
+
+    /**
+     * @return true if encodeFixed() will write the location
+     */
+    static boolean fitsFixed(@Nonnull Location location, @Nonnull Dictionary dictionary) {
+        return fixedSize(location) >= 0 && dictionary.hasRoom(location.tid, location.provider, location.sid);
+    }
+
+    /**
+     * Writes the fixed record of fixedSize() bytes at the position of the buffer
+     * @return false if the location does not fit or the dictionary is full,
+     * neither the buffer nor the dictionary is changed then
+     */
+    public static boolean encodeFixed(@Nonnull Location location, @Nonnull ByteBuffer buffer, @Nonnull Dictionary dictionary) {
+        if (!fitsFixed(location, dictionary))
+            return false;
+        int tid = dictionary.ref(location.tid);
+        int provider = dictionary.ref(location.provider);
+        int sid = dictionary.ref(location.sid);
+        putNumeric(location, buffer);
+        buffer.putShort((short) tid)
+                .putShort((short) provider)
+                .putShort((short) sid);
+        putString(location.id, buffer);
+        return true;
+    }
+
+    @Nonnull
+    public static Location decodeFixed(@Nonnull ByteBuffer buffer, @Nonnull Dictionary dictionary) {
+        long lat = buffer.getInt();
+        long lon = buffer.getInt();
+        long alt = buffer.getInt();
+        long speed = buffer.getInt();
+        long acc = buffer.getInt();
+        long ts = buffer.getLong();
+        long bear = buffer.getShort();
+        long batp = buffer.get();
+        boolean bats = buffer.get() != 0;
+        String tid = dictionary.get(buffer.getShort() & 0xffff);
+        String provider = dictionary.get(buffer.getShort() & 0xffff);
+        String sid = dictionary.get(buffer.getShort() & 0xffff);
+        String id = getString(buffer);
+        return new Location(id, tid, lat, lon, alt, bear, ts, batp, bats, provider, speed, acc, sid);
+    }
+
+    private static byte[] utf8(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the size of the inline record or -1 if the location does not fit
+     */
+    public static int inlineSize(@Nonnull Location location) {
+        if (!fits(location))
+            return -1;
+        int size = NUMERIC_SIZE + 4 * Short.BYTES;
+        for (String string : new String[]{location.id, location.tid, location.provider, location.sid}) {
+            int length = utf8(string).length;
+            if (length > MAX_INLINE_STRING)
+                return -1;
+            size += length;
+        }
+        return size;
+    }
+
+    private static void putString(String string, ByteBuffer buffer) {
+        byte[] bytes = utf8(string);
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xffff;
+        String string;
+        if (buffer.hasArray()) {
+            string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.duplicate().get(bytes);
+            string = new String(bytes, StandardCharsets.UTF_8);
+        }
+        // the Buffer cast keeps the bytecode compatible with Java 8
+        ((Buffer) buffer).position(buffer.position() + length);
+        return string;
+    }
+
+    /**
+     * Writes the self-contained record of inlineSize() bytes at the position of the buffer
+     */
+    public static void encodeInline(@Nonnull Location location, @Nonnull ByteBuffer buffer) {
+        if (!fits(location))
+            throw new IllegalArgumentException("The location does not fit the compact encoding");
+        putNumeric(location, buffer);
+        putString(location.id, buffer);
+        putString(location.tid, buffer);
+        putString(location.provider, buffer);
+        putString(location.sid, buffer);
+    }
+
+    @Nonnull
+    public static Location decodeInline(@Nonnull ByteBuffer buffer) {
+        long lat = buffer.getInt();
+        long lon = buffer.getInt();
+        long alt = buffer.getInt();
+        long speed = buffer.getInt();
+        long acc = buffer.getInt();
+        long ts = buffer.getLong();
+        long bear = buffer.getShort();
+        long batp = buffer.get();
+        boolean bats = buffer.get() != 0;
+        String id = getString(buffer);
+        String tid = getString(buffer);
+        String provider = getString(buffer);
+        String sid = getString(buffer);
+        return new Location(id, tid, lat, lon, alt, bear, ts, batp, bats, provider, speed, acc, sid);
+    }
+
+    /**
+     * Writes the locations as the dictionary of their strings followed by the fixed records
+     * @throws IllegalArgumentException if a location does not fit the encoding
+     */
+    public static void export(@Nonnull Collection<Location> locations, @Nonnull OutputStream out) throws IOException {
+        Dictionary dictionary = new Dictionary();
+        long size = 0;
+        for (Location location : locations) {
+            int fixedSize = fixedSize(location);
+            if (fixedSize < 0)
+                throw new IllegalArgumentException("The location does not fit the compact encoding");
+            size += fixedSize;
+        }
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Too many locations to export: " + locations.size());
+        ByteBuffer records = ByteBuffer.allocate((int) size);
+        for (Location location : locations) {
+            if (!encodeFixed(location, records, dictionary))
+                throw new IllegalArgumentException("Too many distinct strings to export");
+        }
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(EXPORT_MAGIC);
+        data.writeInt(dictionary.size());
+        for (int i = 0; i < dictionary.size(); i++) {
+            data.writeUTF(dictionary.get(i));
+        }
+        data.writeInt(locations.size());
+        data.write(records.array(), 0, records.position());
+        data.flush();
+    }
+
+    /**
+     * Reads the locations written by export()
+     * The records are read one by one, so a corrupted count fails with EOFException
+     * at the end of the stream rather than allocating its size upfront.
+     */
+    @Nonnull
+    public static List<Location> importFrom(@Nonnull InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != EXPORT_MAGIC)
+            throw new IOException("Not an exported locations stream");
+        Dictionary dictionary = new Dictionary();
+        int strings = data.readInt();
+        if (strings < 1 || strings > Dictionary.MAX_SIZE)
+            throw new IOException("Invalid number of strings: " + strings);
+        for (int i = 0; i < strings; i++) {
+            String string = data.readUTF();
+            if (dictionary.ref(string) != i)
+                throw new IOException("Duplicate string in the dictionary: " + string);
+        }
+        int count = data.readInt();
+        if (count < 0)
+            throw new IOException("Invalid number of locations: " + count);
+        byte[] record = new byte[FIXED_SIZE + MAX_INLINE_STRING];
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        List<Location> locations = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            data.readFully(record, 0, FIXED_SIZE);
+            // the id follows its length, the last 2 bytes of the fixed part
+            int idLength = ((record[FIXED_SIZE - 2] & 0xff) << 8) | (record[FIXED_SIZE - 1] & 0xff);
+            data.readFully(record, FIXED_SIZE, idLength);
+            ((Buffer) buffer).clear();
+            try {
+                locations.add(decodeFixed(buffer, dictionary));
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("Invalid string reference of the location " + i, e);
+            }
+        }
+        return locations;
+    }
+}
@@ -2,10 +2,26 @@ package solutions.s4y.waytoday.sdk;
 
 import solutions.s4y.waytoday.grpc.LocationOuterClass;
 
+import java.util.List;
+
 /**
  * Utility class to convert between Location and LocationOuterClass.Location
  */
 class LocationGrpcBridge {
+    // tags, varints of the typical magnitudes and the embedding overhead
+    private static final int ESTIMATED_FIXED_SIZE = 80;
+
+    /**
+     * Cheap estimation of the serialized size of the location without building the message
+     */
+    static int estimateSize(Location location) {
+        return ESTIMATED_FIXED_SIZE
+                + location.id.length()
+                + location.tid.length()
+                + location.provider.length()
+                + location.sid.length();
+    }
+
     static Location fromProto(LocationOuterClass.Location location) {
         return new Location(
                 location.getID(),
@@ -23,7 +39,53 @@ class LocationGrpcBridge {
                 location.getSid()
         );
     }
+    /**
+     * Appends the locations to the batch without creating a Location per item
+     */
+    static void fromProto(List<LocationOuterClass.Location> locations, LocationBatch batch) {
+        for (LocationOuterClass.Location location : locations) {
+            batch.add(
+                    location.getID(),
+                    location.getTid(),
+                    location.getLat(),
+                    location.getLon(),
+                    location.getAlt(),
+                    location.getBear(),
+                    location.getTs(),
+                    location.getBatp(),
+                    location.getBats(),
+                    location.getProvider(),
+                    location.getSpeed(),
+                    location.getAcc(),
+                    location.getSid()
+            );
+        }
+    }
+
+    static LocationOuterClass.Location toProto(LocationBatch.Cursor location, String provider) {
+        String locationProvider = location.provider();
+        return LocationOuterClass.Location.newBuilder()
+                .setID(location.id())
+                .setTid(location.tid())
+                .setLat(location.lat())
+                .setLon(location.lon())
+                .setAlt(location.alt())
+                .setBear(location.bear())
+                .setTs(location.ts())
+                .setBatp(location.batp())
+                .setBats(location.bats())
+                .setProvider(locationProvider.isEmpty() ? provider : locationProvider)
+                .setSpeed(location.speed())
+                .setAcc(location.acc())
+                .setSid(location.sid())
+                .build();
+    }
+
     static LocationOuterClass.Location toProto(Location location, String provider){
+        return toProtoBuilder(location, provider).build();
+    }
+
+    static LocationOuterClass.Location.Builder toProtoBuilder(Location location, String provider){
         return LocationOuterClass.Location.newBuilder()
                 .setID(location.id)
                 .setTid(location.tid)
@@ -37,7 +99,6 @@ class LocationGrpcBridge {
                 .setProvider(location.provider.isEmpty() ? provider : location.provider)
                 .setSpeed(location.speed)
                 .setAcc(location.acc)
-                .setSid(location.sid)
-                .build();
+                .setSid(location.sid);
     }
 }
@@ -0,0 +1,128 @@
+package solutions.s4y.waytoday.sdk;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import javax.annotation.Nonnull;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cold publisher of the locations fetched by a single call
+ * Every subscriber makes its own call on its first request and receives the
+ * locations no faster than it requests them.
+ */
+final class LocationsPublisher implements Publisher<Location> {
+    private final Supplier<CompletableFuture<LocationBatch>> call;
+
+    LocationsPublisher(@Nonnull Supplier<CompletableFuture<LocationBatch>> call) {
+        this.call = call;
+    }
+
+    @Override
+    public void subscribe(@Nonnull Subscriber<? super Location> subscriber) {
+        // rule 1.9
+        Objects.requireNonNull(subscriber, "subscriber");
+        LocationsSubscription subscription = new LocationsSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private final class LocationsSubscription implements Subscription {
+        private final Subscriber<? super Location> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        // the emission loop is run by one thread at a time
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile CompletableFuture<LocationBatch> batch;
+        private volatile boolean cancelled;
+        private volatile Throwable badRequest;
+        private LocationBatch locations;
+        private int next;
+        private boolean done;
+
+        LocationsSubscription(Subscriber<? super Location> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                // rule 3.9
+                badRequest = new IllegalArgumentException("non-positive request: " + n);
+            } else {
+                requested.getAndUpdate(r -> r + n < 0 ? Long.MAX_VALUE : r + n);
+                if (batch == null) {
+                    synchronized (this) {
+                        if (batch == null && !cancelled) {
+                            CompletableFuture<LocationBatch> future = call.get();
+                            batch = future;
+                            future.whenComplete((b, e) -> drain());
+                        }
+                    }
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            CompletableFuture<LocationBatch> future = batch;
+            if (future != null)
+                future.cancel(true);
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0)
+                return;
+            int missed = 1;
+            do {
+                emit();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit() {
+            if (done || cancelled)
+                return;
+            if (badRequest != null) {
+                terminate();
+                subscriber.onError(badRequest);
+                return;
+            }
+            CompletableFuture<LocationBatch> future = batch;
+            if (future == null || !future.isDone())
+                return;
+            if (locations == null) {
+                try {
+                    locations = future.join();
+                } catch (CompletionException e) {
+                    terminate();
+                    subscriber.onError(e.getCause());
+                    return;
+                }
+            }
+            long r = requested.get();
+            long emitted = 0;
+            while (emitted < r && next < locations.size() && !cancelled) {
+                subscriber.onNext(locations.get(next++));
+                emitted++;
+            }
+            requested.addAndGet(-emitted);
+            // complete without waiting for a request beyond the last location
+            if (!cancelled && next >= locations.size()) {
+                terminate();
+                subscriber.onComplete();
+            }
+        }
+
+        private void terminate() {
+            done = true;
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package solutions.s4y.waytoday.sdk;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue of the locations waiting for the upload
+ * An array backed ring with the power of two capacity after D. Vyukov's bounded
+ * queue: every slot carries a sequence telling whether it is free for a producer
+ * or published for a consumer. Any number of threads may enqueue concurrently,
+ * the oldest location is evicted when the queue grows beyond its bound.
+ * Every location gets a position which grows monotonically, the uploader uses it
+ * to remove the acknowledged locations even if some of them were evicted meanwhile.
+ */
+class LocationsRingBuffer implements ILocationsQueue {
+    private final int bound;
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<Location> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param bound the maximal number of locations kept, the capacity of the ring
+     *              is the next power of two
+     */
+    LocationsRingBuffer(int bound) {
+        if (bound < 1 || bound > (1 << 30))
+            throw new IllegalArgumentException("The bound is out of range: " + bound);
+        this.bound = bound;
+        this.capacity = Integer.highestOneBit(Math.max(2, bound) - 1) << 1;
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    int bound() {
+        return bound;
+    }
+
+    @Override
+    public int offer(@Nonnull Location location) {
+        int evicted = 0;
+        for (; ; ) {
+            long pos = tail.get();
+            int index = (int) pos & mask;
+            long dif = sequences.get(index) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots.set(index, location);
+                    sequences.set(index, pos + 1);
+                    break;
+                }
+            } else if (dif < 0) {
+                // the slot is not released yet: either the ring is full or a consumer is releasing it
+                if (pollHead(capacity - 1) != null)
+                    evicted++;
+                else
+                    Thread.yield();
+            }
+            // dif > 0: another producer has taken the position
+        }
+        while (pollHead(bound) != null) {
+            evicted++;
+        }
+        if (evicted > 0)
+            dropped.addAndGet(evicted);
+        return evicted;
+    }
+
+    /**
+     * Removes the head location as long as more than keep locations are queued
+     */
+    @Nullable
+    private Location pollHead(long keep) {
+        for (; ; ) {
+            long pos = head.get();
+            if (tail.get() - pos <= keep)
+                return null;
+            int index = (int) pos & mask;
+            long dif = sequences.get(index) - (pos + 1);
+            if (dif == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    Location location = slots.getAndSet(index, null);
+                    sequences.set(index, pos + capacity);
+                    return location;
+                }
+            } else if (dif < 0) {
+                // the position is taken by a producer which has not published it yet
+                if (keep == 0)
+                    return null;
+                Thread.yield();
+            }
+        }
+    }
+
+    @Nullable
+    Location poll() {
+        return pollHead(0);
+    }
+
+    @Override
+    public long peek(@Nonnull Collection<? super Location> into, int max) {
+        final long first = head.get();
+        long pos = first;
+        for (int n = 0; n < max; n++, pos++) {
+            int index = (int) pos & mask;
+            if (sequences.get(index) != pos + 1)
+                break;
+            Location location = slots.get(index);
+            // the slot could be released and reused while being read
+            if (location == null || sequences.get(index) != pos + 1)
+                break;
+            into.add(location);
+        }
+        return first;
+    }
+
+    @Override
+    public void removeUpTo(long end) {
+        claim(end, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Moves up to max locations from the head to the collection
+     * @return the number of the moved locations
+     */
+    int drainTo(@Nonnull Collection<? super Location> into, int max) {
+        int before = into.size();
+        claim(Long.MAX_VALUE, max, into);
+        return into.size() - before;
+    }
+
+    /**
+     * Moves up to max locations from the head to the list
+     * @return the position of the first moved location or -1 if nothing was moved
+     */
+    long drain(@Nonnull List<? super Location> into, int max) {
+        return claim(Long.MAX_VALUE, max, into);
+    }
+
+    /**
+     * Claims up to max published slots before end with a single CAS of the head
+     * @return the position of the first claimed slot or -1 if nothing was claimed
+     */
+    private long claim(long end, int max, @Nullable Collection<? super Location> into) {
+        long first = -1;
+        for (; ; ) {
+            long pos = head.get();
+            long last = pos;
+            long limit = Math.min(end, pos + max);
+            while (last < limit && sequences.get((int) last & mask) == last + 1) {
+                last++;
+            }
+            if (last == pos)
+                return first;
+            if (head.compareAndSet(pos, last)) {
+                for (long p = pos; p < last; p++) {
+                    int index = (int) p & mask;
+                    Location location = slots.getAndSet(index, null);
+                    sequences.set(index, p + capacity);
+                    if (into != null)
+                        into.add(location);
+                }
+                if (first < 0)
+                    first = pos;
+                if (into != null || last >= end)
+                    return first;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        long h = head.get();
+        long t = tail.get();
+        return (int) Math.min(capacity, t - h);
+    }
+
+    @Override
+    public long dropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,122 @@
+package solutions.s4y.waytoday.sdk;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import javax.annotation.Nonnull;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Feeds the upload queue of the client from a Reactive Streams publisher
+ * Requests only as many locations as the queue has room for, so the publisher
+ * is slowed down to the upload throughput instead of the oldest locations being evicted.
+ * The demand is renewed as uploadLocations() drains the queue.
+ * On Java 9+ FlowAdapters.toFlowSubscriber adapts it to java.util.concurrent.Flow.
+ */
+public final class LocationsSubscriber implements Subscriber<Location> {
+    private final WayTodayClient client;
+    private final int capacity;
+    private final AtomicReference<Subscription> subscription = new AtomicReference<>();
+    // requested but not delivered yet
+    private final AtomicLong outstanding = new AtomicLong();
+    // the calls to the subscription are made by one thread at a time, rule 2.7
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile boolean cancelled;
+    private boolean cancelSent;
+
+    LocationsSubscriber(@Nonnull WayTodayClient client, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.client = client;
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void onSubscribe(@Nonnull Subscription subscription) {
+        // rule 2.13
+        Objects.requireNonNull(subscription, "subscription");
+        if (!this.subscription.compareAndSet(null, subscription)) {
+            // rule 2.5: one subscription at a time
+            subscription.cancel();
+            return;
+        }
+        client.locationsSubscribers.add(this);
+        request();
+    }
+
+    @Override
+    public void onNext(@Nonnull Location location) {
+        Objects.requireNonNull(location, "location");
+        client.enqueueLocationToUpload(location);
+        outstanding.decrementAndGet();
+    }
+
+    @Override
+    public void onError(@Nonnull Throwable t) {
+        Objects.requireNonNull(t, "throwable");
+        client.locationsSubscribers.remove(this);
+        client.notifyError(new WayTodayError("Error in the locations publisher", t));
+    }
+
+    @Override
+    public void onComplete() {
+        client.locationsSubscribers.remove(this);
+    }
+
+    /**
+     * Stops receiving the locations, the ones already queued are still uploaded
+     */
+    public void cancel() {
+        client.locationsSubscribers.remove(this);
+        cancelled = true;
+        drain();
+    }
+
+    /**
+     * @return the number of the locations requested from the publisher but not received yet
+     */
+    @SuppressWarnings("unused")
+    public long getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * Requests the locations to fill the free room of the queue
+     * Called by the uploading threads, the calls racing with one in progress
+     * are repeated by the thread making it.
+     */
+    void request() {
+        drain();
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0)
+            return;
+        int missed = 1;
+        do {
+            signal();
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void signal() {
+        Subscription s = subscription.get();
+        if (s == null || cancelSent)
+            return;
+        if (cancelled) {
+            cancelSent = true;
+            s.cancel();
+            return;
+        }
+        long current = outstanding.get();
+        long free = capacity - client.locationsQueue.size() - current;
+        if (free <= 0)
+            return;
+        // onNext decrements it concurrently
+        outstanding.addAndGet(free);
+        s.request(free);
+    }
+}
@@ -0,0 +1,64 @@
+package solutions.s4y.waytoday.sdk;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.TimeGauge;
+
+import javax.annotation.Nonnull;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * Exports the metrics to Micrometer, needs io.micrometer:micrometer-core on the classpath
+ * The latencies are the timers of the count and the total time tagged by the operation
+ * plus the p50, p95, p99 and max gauges tagged by phi. Give the clients sharing
+ * a meter registry the tags telling them apart.
+ */
+public final class MicrometerMetricsRegistry implements IMetricsRegistry {
+    private static final double[] PERCENTILES = {50, 95, 99};
+
+    private final MeterRegistry registry;
+    private final Tags tags;
+
+    public MicrometerMetricsRegistry(@Nonnull MeterRegistry registry) {
+        this(registry, Tags.empty());
+    }
+
+    public MicrometerMetricsRegistry(@Nonnull MeterRegistry registry, @Nonnull Iterable<Tag> tags) {
+        this.registry = registry;
+        this.tags = Tags.of(tags);
+    }
+
+    @Override
+    public <T> void gauge(@Nonnull String name, @Nonnull T obj, @Nonnull ToLongFunction<T> value) {
+        Gauge.builder(name, obj, o -> value.applyAsLong(o)).tags(tags).register(registry);
+    }
+
+    @Override
+    public <T> void counter(@Nonnull String name, @Nonnull T obj, @Nonnull ToLongFunction<T> value) {
+        FunctionCounter.builder(name, obj, o -> value.applyAsLong(o)).tags(tags).register(registry);
+    }
+
+    @Override
+    public void latency(@Nonnull String name, @Nonnull GrpcOperation operation, @Nonnull LatencyHistogram histogram) {
+        Tags operationTags = tags.and("operation", operation.name().toLowerCase(Locale.ROOT));
+        FunctionTimer.builder(name, histogram, LatencyHistogram::getCount, LatencyHistogram::getTotalMicros,
+                        TimeUnit.MICROSECONDS)
+                .tags(operationTags)
+                .register(registry);
+        for (double percentile : PERCENTILES) {
+            TimeGauge.builder(name + ".percentile", histogram, TimeUnit.MICROSECONDS,
+                            h -> h.getPercentileMicros(percentile))
+                    .tags(operationTags.and("phi", String.valueOf(percentile / 100)))
+                    .register(registry);
+        }
+        TimeGauge.builder(name + ".max", histogram, TimeUnit.MICROSECONDS, LatencyHistogram::getMaxMicros)
+                .tags(operationTags)
+                .register(registry);
+    }
+}
@@ -0,0 +1,120 @@
+package solutions.s4y.waytoday.sdk;
+
+import io.grpc.Status;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How the failed uploads are retried: the transient gRPC failures and the
+ * packs refused by the server are retried with the exponential backoff and jitter
+ * while the retry budget allows, the other failures are not.
+ * The budget is the token bucket of the gRPC retry throttling: every failure takes
+ * a token, every success returns tokenRatio of a token, and the retries stop while
+ * less than the half of the tokens is left. The clients sharing a policy share its budget.
+ */
+public final class RetryPolicy {
+    /**
+     * Do not retry, the default
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+    private static final long MILLI = 1000;
+
+    private final int maxAttempts;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final double multiplier;
+    private final double jitter;
+    private final long maxTokens;
+    private final long tokenRatio;
+    // in the thousandths of a token
+    private final AtomicLong tokens;
+
+    /**
+     * Doubles the backoff after every failure with the 20% jitter, the budget of 10 tokens with 0.1 ratio
+     */
+    public RetryPolicy(int maxAttempts, long initialBackoffMs, long maxBackoffMs) {
+        this(maxAttempts, initialBackoffMs, maxBackoffMs, 2, 0.2, 10, 0.1);
+    }
+
+    /**
+     * @param maxAttempts the attempts to upload a pack including the first one
+     * @param jitter      the fraction of the backoff taken away at random, 0 - exact backoff
+     * @param maxTokens   the size of the retry budget
+     * @param tokenRatio  the part of a token every success returns to the budget
+     */
+    public RetryPolicy(int maxAttempts, long initialBackoffMs, long maxBackoffMs, double multiplier, double jitter,
+                       int maxTokens, double tokenRatio) {
+        if (maxAttempts < 1 || initialBackoffMs < 0 || maxBackoffMs < initialBackoffMs || multiplier < 1
+                || jitter < 0 || jitter > 1 || maxTokens < 1 || tokenRatio < 0)
+            throw new IllegalArgumentException("Invalid retry policy");
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+        this.maxTokens = maxTokens * MILLI;
+        this.tokenRatio = Math.round(tokenRatio * MILLI);
+        this.tokens = new AtomicLong(this.maxTokens);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * UNAVAILABLE, DEADLINE_EXCEEDED, RESOURCE_EXHAUSTED and ABORTED are transient,
+     * INVALID_ARGUMENT, UNAUTHENTICATED and the rest will fail again
+     */
+    public static boolean isRetryable(@Nonnull Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof ExecutionException || cause instanceof CompletionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        switch (Status.fromThrowable(cause).getCode()) {
+            case UNAVAILABLE:
+            case DEADLINE_EXCEEDED:
+            case RESOURCE_EXHAUSTED:
+            case ABORTED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param attempt the number of the failed attempt, 1 - the first one
+     * @return the delay before the next attempt
+     */
+    public long backoffMs(int attempt) {
+        double backoff = initialBackoffMs * Math.pow(multiplier, attempt - 1);
+        long capped = (long) Math.min(maxBackoffMs, backoff);
+        return capped - (long) (capped * jitter * ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * Takes a token for the failure
+     * @return true if the budget allows to retry it
+     */
+    boolean onFailure() {
+        long left = tokens.updateAndGet(t -> Math.max(0, t - MILLI));
+        return left > maxTokens / 2;
+    }
+
+    void onSuccess() {
+        if (tokens.get() < maxTokens)
+            tokens.updateAndGet(t -> Math.min(maxTokens, t + tokenRatio));
+    }
+
+    /**
+     * @return the tokens left in the budget
+     */
+    @SuppressWarnings("unused")
+    public double getTokens() {
+        return (double) tokens.get() / MILLI;
+    }
+}
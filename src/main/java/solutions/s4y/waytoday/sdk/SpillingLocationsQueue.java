@@ -0,0 +1,261 @@
+package solutions.s4y.waytoday.sdk;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Two-tier queue for the bursts of locations while the network is down
+ * The recent locations are kept in the lock-free in-memory ring, the oldest ones
+ * beyond its bound are moved to the memory-mapped overflow file of fixed size records
+ * instead of being dropped. The overflow file is drained first once the uploads resume.
+ * When the file is full the oldest spilled locations are evicted.
+ * The locations are stored with the fixed LocationCodec encoding, tid, provider and sid
+ * as references to the in-memory dictionary, the id inline in the room of a UUID.
+ * A location which does not fit the encoding, has a longer id or brings a new string
+ * to the full dictionary is dropped.
+ * The dictionary is cleared whenever the file is drained, so it does not fill up
+ * with the strings of the long gone locations.
+ * Unlike FileLocationsQueue the file does not survive the restart, it is only
+ * a cheap extension of the memory: close() unmaps and truncates it.
+ */
+public class SpillingLocationsQueue implements ILocationsQueue {
+    public static final int DEFAULT_HOT_LOCATIONS = 500;
+    // the UTF-8 bytes of the id a slot has room for
+    static final int MAX_ID_BYTES = 36;
+    // position and the fixed LocationCodec record
+    static final int RECORD_SIZE = Long.BYTES + LocationCodec.FIXED_SIZE + MAX_ID_BYTES;
+    private static final int SPILL_BATCH = 64;
+
+    // not a monitor: a virtual thread blocked on a page fault under a monitor pins its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LocationsRingBuffer hot;
+    private final int hotBound;
+    private final FileChannel channel;
+    private final MappedByteBuffer spill;
+    private final int capacity;
+    // the counters of the written and read records, the slot is the counter modulo capacity
+    private volatile long spillWrite = 0;
+    private volatile long spillRead = 0;
+    private long spillDropped = 0;
+    private final LocationCodec.Dictionary strings;
+    private final List<Location> batch = new ArrayList<>(SPILL_BATCH);
+    private boolean closed = false;
+
+    /**
+     * @param file         the overflow file, it is overwritten
+     * @param maxBytes     the size of the overflow file, up to 2GiB
+     * @param hotLocations the number of the locations kept in memory
+     */
+    public SpillingLocationsQueue(@Nonnull File file, long maxBytes, int hotLocations) throws IOException {
+        this(file, maxBytes, hotLocations, LocationCodec.Dictionary.MAX_SIZE);
+    }
+
+    SpillingLocationsQueue(@Nonnull File file, long maxBytes, int hotLocations, int maxStrings) throws IOException {
+        if (maxBytes < RECORD_SIZE || maxBytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("maxBytes is out of range: " + maxBytes);
+        this.hotBound = hotLocations;
+        this.strings = new LocationCodec.Dictionary(maxStrings);
+        // the slack absorbs the producers racing past the bound before the oldest are spilled
+        this.hot = new LocationsRingBuffer(hotLocations * 2);
+        this.capacity = (int) (maxBytes / RECORD_SIZE);
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.spill = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * RECORD_SIZE);
+    }
+
+    public SpillingLocationsQueue(@Nonnull File file, long maxBytes) throws IOException {
+        this(file, maxBytes, DEFAULT_HOT_LOCATIONS);
+    }
+
+    @Override
+    public int offer(@Nonnull Location location) {
+        if (hot.size() >= hotBound)
+            spill();
+        return hot.offer(location);
+    }
+
+    private void ensureOpen() {
+        if (closed)
+            throw new IllegalStateException("The queue is closed");
+    }
+
+    private void spill() {
+        lock.lock();
+        try {
+            ensureOpen();
+            int excess;
+            while ((excess = hot.size() - hotBound + 1) > 0) {
+                batch.clear();
+                long first = hot.drain(batch, Math.min(excess, SPILL_BATCH));
+                if (first < 0)
+                    break;
+                for (int i = 0; i < batch.size(); i++) {
+                    write(first + i, batch.get(i));
+                }
+            }
+            batch.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(long position, Location location) {
+        // a location that cannot be stored must not evict one that is
+        if (LocationCodec.fixedSize(location) > RECORD_SIZE - Long.BYTES || !LocationCodec.fitsFixed(location, strings)) {
+            spillDropped++;
+            return;
+        }
+        if (spillWrite - spillRead >= capacity) {
+            // the file is full: the oldest spilled location makes room
+            spillRead++;
+            spillDropped++;
+        }
+        int offset = (int) (spillWrite % capacity) * RECORD_SIZE;
+        ((Buffer) spill).position(offset + Long.BYTES);
+        LocationCodec.encodeFixed(location, spill, strings);
+        spill.putLong(offset, position);
+        spillWrite++;
+    }
+
+    private long positionAt(long counter) {
+        return spill.getLong((int) (counter % capacity) * RECORD_SIZE);
+    }
+
+    private Location read(long counter) {
+        ((Buffer) spill).position((int) (counter % capacity) * RECORD_SIZE + Long.BYTES);
+        return LocationCodec.decodeFixed(spill, strings);
+    }
+
+    @Override
+    public long peek(@Nonnull Collection<? super Location> into, int max) {
+        lock.lock();
+        try {
+            ensureOpen();
+            long first = -1;
+            long expected = -1;
+            int taken = 0;
+            for (long counter = spillRead; counter < spillWrite && taken < max; counter++) {
+                long position = positionAt(counter);
+                if (first < 0)
+                    first = position;
+                else if (position != expected)
+                    // the dropped locations break the run
+                    return first;
+                into.add(read(counter));
+                expected = position + 1;
+                taken++;
+            }
+            if (taken == 0)
+                return hot.peek(into, max);
+            if (taken < max) {
+                List<Location> recent = new ArrayList<>();
+                if (hot.peek(recent, max - taken) == expected)
+                    into.addAll(recent);
+            }
+            return first;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void removeUpTo(long end) {
+        lock.lock();
+        try {
+            ensureOpen();
+            while (spillRead < spillWrite && positionAt(spillRead) < end) {
+                spillRead++;
+            }
+            // no spilled location refers to the strings any more
+            if (spillRead == spillWrite)
+                strings.clear();
+            hot.removeUpTo(end);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(Integer.MAX_VALUE, hot.size() + (spillWrite - spillRead));
+    }
+
+    /**
+     * @return the number of the locations held in the overflow file
+     */
+    public int spilled() {
+        return (int) (spillWrite - spillRead);
+    }
+
+    @Override
+    public long dropped() {
+        lock.lock();
+        try {
+            return hot.dropped() + spillDropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases the mapping and truncates the overflow file, the spilled locations are lost
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+            // a mapped file can not be truncated or deleted on Windows until the mapping is released
+            unmap(spill);
+            try {
+                channel.truncate(0);
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases the mapping right away instead of on the GC, there is no public API for that before Java 19
+     */
+    private static void unmap(@Nonnull MappedByteBuffer buffer) {
+        try {
+            // Java 9+
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // fall back to the Java 8 cleaner
+        }
+        try {
+            Method cleaner = buffer.getClass().getMethod("cleaner");
+            cleaner.setAccessible(true);
+            Object clean = cleaner.invoke(buffer);
+            if (clean != null)
+                clean.getClass().getMethod("clean").invoke(clean);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // left to the GC
+        }
+    }
+}
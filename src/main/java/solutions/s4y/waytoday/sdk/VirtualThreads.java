@@ -0,0 +1,77 @@
+package solutions.s4y.waytoday.sdk;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads of JDK 21+ looked up by reflection, the SDK is built for Java 8
+ */
+final class VirtualThreads {
+    @Nullable
+    private static final Method NEW_PER_TASK_EXECUTOR;
+    @Nullable
+    private static final Method OF_VIRTUAL;
+    @Nullable
+    private static final Method NAME;
+    @Nullable
+    private static final Method FACTORY;
+
+    static {
+        Method newPerTaskExecutor = null;
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        try {
+            newPerTaskExecutor = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            // the methods of the public interface, the builder itself is an internal class
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+        } catch (ReflectiveOperationException e) {
+            newPerTaskExecutor = null;
+        }
+        NEW_PER_TASK_EXECUTOR = newPerTaskExecutor;
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+    }
+
+    private VirtualThreads() {
+    }
+
+    static boolean isSupported() {
+        return NEW_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * @return the executor starting a virtual thread per task or null before JDK 21
+     */
+    @Nullable
+    static ExecutorService newPerTaskExecutor() {
+        if (NEW_PER_TASK_EXECUTOR == null)
+            return null;
+        try {
+            return (ExecutorService) NEW_PER_TASK_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the factory of the virtual threads named prefix0, prefix1... or null before JDK 21
+     */
+    @Nullable
+    static ThreadFactory factory(String prefix) {
+        if (OF_VIRTUAL == null || NAME == null || FACTORY == null)
+            return null;
+        try {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), prefix, 0L);
+            return (ThreadFactory) FACTORY.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
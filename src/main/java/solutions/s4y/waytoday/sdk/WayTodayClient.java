@@ -2,29 +2,56 @@ package solutions.s4y.waytoday.sdk;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Deque;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
-public class WayTodayClient {
-    private static final AtomicBoolean isUploading = new AtomicBoolean();
-    private static final AtomicBoolean isError = new AtomicBoolean();
+public class WayTodayClient implements AutoCloseable {
+    private final AtomicBoolean isUploading = new AtomicBoolean();
+    private final AtomicBoolean isError = new AtomicBoolean();
     private final IPersistedState persistedState;
-    private final GrpcClient grpcClient;
+    final GrpcClient grpcClient;
 
     final ArrayList<IErrorsListener> errorsListeners = new ArrayList<>(2);
     final ArrayList<ITrackIdChangeListener> trackIdChangeListeners = new ArrayList<>(2);
     final List<IUploadingLocationsStatusChangeListener> uploadingLocationsStatusChangeListeners = new ArrayList<>(2);
-    final Deque<Location> locationsQueue = new LinkedList<>();
+    final ILocationsQueue locationsQueue;
+    final List<LocationsSubscriber> locationsSubscribers = new CopyOnWriteArrayList<>();
+    final WayTodayMetrics metrics;
     final static int MAX_LOCATIONS_MEMORY = 500;
     final static int PACK_SIZE = 16;
+    final AdaptivePackSize packSize = new AdaptivePackSize(PACK_SIZE, AdaptivePackSize.DEFAULT_TARGET_LATENCY_MS);
+    private volatile int maxPacksInFlight = 1;
+    private volatile long maxBytesInFlight = Long.MAX_VALUE;
+    private volatile RetryPolicy retryPolicy = RetryPolicy.NONE;
+    @Nullable
+    private volatile CircuitBreaker circuitBreaker;
+    private final Consumer<CircuitBreaker.State> circuitBreakerListener = this::notifyCircuitBreakerState;
+    // guarded by isUploading
+    private int failedAttempts = 0;
+    @Nullable
+    private Throwable uploadFailure;
 
     public WayTodayClient(IPersistedState persistedState) {
         this(persistedState, new GrpcClient());
     }
 
+    /**
+     * @param locationsQueue the queue to keep the locations waiting for the upload,
+     *                       i.e. FileLocationsQueue to survive the restarts.
+     *                       The client closes it on close()
+     */
+    public WayTodayClient(IPersistedState persistedState, ILocationsQueue locationsQueue) {
+        this(persistedState, new GrpcClient(), locationsQueue);
+    }
+
     public void addErrorsListener(IErrorsListener listener) {
         synchronized (errorsListeners) {
             errorsListeners.add(listener);
@@ -44,15 +71,45 @@ public class WayTodayClient {
     }
 
     public void enqueueLocationToUpload(Location location) {
-        synchronized (locationsQueue) {
-            locationsQueue.addLast(location);
-            if (locationsQueue.size() > MAX_LOCATIONS_MEMORY) {
-                locationsQueue.removeFirst();
-            }
+        try {
+            int evicted = locationsQueue.offer(location);
+            metrics.enqueued.increment();
+            if (evicted > 0)
+                JfrEvents.queueOverflow(evicted, locationsQueue.size());
+        } catch (RuntimeException e) {
+            notifyError(new WayTodayError("Error while enqueueing location", e));
         }
         notifyUploadLocationsState();
     }
 
+    /**
+     * Same as newLocationsSubscriber(500)
+     */
+    @SuppressWarnings("unused")
+    @Nonnull
+    public LocationsSubscriber newLocationsSubscriber() {
+        return newLocationsSubscriber(MAX_LOCATIONS_MEMORY);
+    }
+
+    /**
+     * The Reactive Streams subscriber enqueueing the locations to upload with the backpressure
+     * @param capacity the subscriber does not request more locations than it takes to fill the queue
+     *                 up to that size, must not exceed the capacity of the queue to avoid the evictions
+     */
+    @Nonnull
+    public LocationsSubscriber newLocationsSubscriber(int capacity) {
+        return new LocationsSubscriber(this, capacity);
+    }
+
+    /**
+     * The queue, upload and gRPC counters of the client
+     */
+    @SuppressWarnings("unused")
+    @Nonnull
+    public WayTodayMetrics getMetrics() {
+        return metrics;
+    }
+
     @Nonnull
     public String getCurrentTrackerId() {
         return persistedState.getTrackerId();
@@ -68,11 +125,7 @@ public class WayTodayClient {
             return UploadingLocationsStatus.ERROR;
         if (isUploading.get())
             return UploadingLocationsStatus.UPLOADING;
-        int size;
-        synchronized (locationsQueue) {
-            size = locationsQueue.size();
-        }
-        if (size > 0)
+        if (!locationsQueue.isEmpty())
             return UploadingLocationsStatus.QUEUED;
         return UploadingLocationsStatus.EMPTY;
     }
@@ -93,6 +146,111 @@ public class WayTodayClient {
         }
     }
 
+    /**
+     * Lets uploadLocations() keep up to that many packs in flight instead of
+     * waiting for every pack to be acknowledged before sending the next one.
+     * The packs in flight may be stored by the server in any order, the locations
+     * are removed from the queue only as the oldest packs are acknowledged.
+     * @param maxPacksInFlight 1 (default) - upload the packs one by one
+     */
+    @SuppressWarnings("unused")
+    public void setMaxPacksInFlight(int maxPacksInFlight) {
+        if (maxPacksInFlight < 1)
+            throw new IllegalArgumentException("maxPacksInFlight must be positive: " + maxPacksInFlight);
+        this.maxPacksInFlight = maxPacksInFlight;
+    }
+
+    /**
+     * Limits the estimated size of the packs in flight, at least one pack is sent anyway
+     */
+    @SuppressWarnings("unused")
+    public void setMaxBytesInFlight(long maxBytesInFlight) {
+        if (maxBytesInFlight < 1)
+            throw new IllegalArgumentException("maxBytesInFlight must be positive: " + maxBytesInFlight);
+        this.maxBytesInFlight = maxBytesInFlight;
+    }
+
+    /**
+     * The pack size is adapted to the link: it grows while the packs are
+     * acknowledged within the target latency and shrinks on slow uploads and errors
+     * @return the number of locations the next pack will contain at most
+     */
+    @SuppressWarnings("unused")
+    public int getPackSize() {
+        return packSize.get();
+    }
+
+    /**
+     * @param targetUploadLatencyMs the pack stops growing once its upload takes longer than that
+     */
+    @SuppressWarnings("unused")
+    public void setTargetUploadLatencyMs(long targetUploadLatencyMs) {
+        if (targetUploadLatencyMs < 1)
+            throw new IllegalArgumentException("targetUploadLatencyMs must be positive: " + targetUploadLatencyMs);
+        packSize.setTargetLatencyMs(targetUploadLatencyMs);
+    }
+
+    /**
+     * Lets uploadLocations() retry the failed packs with the backoff instead of giving up at once
+     * @param retryPolicy RetryPolicy.NONE (default) - do not retry
+     */
+    @SuppressWarnings("unused")
+    public void setRetryPolicy(@Nonnull RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Lets the calls to the server fail fast while it is down, uploadLocations() then
+     * returns at once keeping the queue. The state changes are reported to the
+     * uploading status listeners.
+     * @param circuitBreaker null (default) - no circuit breaker
+     */
+    @SuppressWarnings("unused")
+    public synchronized void setCircuitBreaker(@Nullable CircuitBreaker circuitBreaker) {
+        if (this.circuitBreaker != null)
+            this.circuitBreaker.stateListeners.remove(circuitBreakerListener);
+        this.circuitBreaker = circuitBreaker;
+        if (circuitBreaker != null)
+            circuitBreaker.stateListeners.add(circuitBreakerListener);
+        grpcClient.setCircuitBreaker(circuitBreaker);
+    }
+
+    @Nullable
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Limits the time the calls of the operation may take, the blocking and the async ones alike,
+     * a call exceeding it fails with DEADLINE_EXCEEDED. The default is 30s or GRPC_DEADLINE_MS.
+     * @param deadlineMs 0 - no limit
+     */
+    @SuppressWarnings("unused")
+    public void setDeadlineMs(@Nonnull GrpcOperation operation, long deadlineMs) {
+        if (deadlineMs < 0)
+            throw new IllegalArgumentException("deadlineMs must not be negative: " + deadlineMs);
+        grpcClient.setDeadlineMs(operation, deadlineMs);
+    }
+
+    /**
+     * @return the latencies of the calls of the operation, the failed ones included
+     */
+    @SuppressWarnings("unused")
+    @Nonnull
+    public LatencyHistogram getLatency(@Nonnull GrpcOperation operation) {
+        return grpcClient.getLatency(operation);
+    }
+
+    /**
+     * Sends the second attempt of a slow requestNewTrackerId or testTrackerId call and takes
+     * the first response. The server may allocate an id for the cancelled attempt too.
+     * @param hedgingPolicy null (default) - no hedging
+     */
+    @SuppressWarnings("unused")
+    public void setHedgingPolicy(@Nullable HedgingPolicy hedgingPolicy) {
+        grpcClient.setHedgingPolicy(hedgingPolicy);
+    }
+
     private final AtomicBoolean requestNewTrackerIdProgress = new AtomicBoolean(false);
     private final AtomicBoolean requestNewTrackerIdFailed = new AtomicBoolean(false);
 
@@ -125,37 +283,182 @@ public class WayTodayClient {
         }
     }
 
+    /**
+     * Non-blocking version of requestNewTrackerId
+     * @param executor runs the completion of the future, null - the gRPC default one
+     * @return the future completed with "" if a request is in progress already,
+     * the errors are reported to the errors listeners as well
+     */
+    CompletableFuture<String> requestNewTrackerIdAsync(@Nullable String prevId, @Nullable Executor executor) {
+        if (!requestNewTrackerIdProgress.compareAndSet(false, true)) {
+            return CompletableFuture.completedFuture("");
+        }
+        requestNewTrackerIdFailed.set(false);
+        CompletableFuture<String> call;
+        try {
+            call = grpcClient.generateTrackerIdAsync(prevId, executor);
+        } catch (RuntimeException e) {
+            call = new CompletableFuture<>();
+            call.completeExceptionally(e);
+        }
+        final CompletableFuture<String> request = call;
+        return cancelling(request, request.whenComplete((id, e) -> {
+            requestNewTrackerIdProgress.set(false);
+            if (e == null) {
+                persistedState.setTrackerId(id);
+                notifyTrackIdChange(id);
+            } else {
+                requestNewTrackerIdFailed.set(true);
+                if (!request.isCancelled())
+                    notifyError(new WayTodayError("Error while requesting new tracker id", e));
+            }
+        }));
+    }
+
+    /**
+     * Makes cancelling the dependent future cancel the call it depends on
+     */
+    static <T> CompletableFuture<T> cancelling(CompletableFuture<?> call, CompletableFuture<T> dependent) {
+        dependent.whenComplete((value, e) -> {
+            if (dependent.isCancelled())
+                call.cancel(true);
+        });
+        return dependent;
+    }
+
+    /**
+     * Fetches the last locations of the tracker as the columnar batch
+     * @return the empty batch on error, the error is reported to the errors listeners
+     */
+    @Nonnull
+    public LocationBatch getLocations(@Nonnull String tid, int limit) {
+        try {
+            return grpcClient.getLocationBatch(tid, limit);
+        } catch (Exception e) {
+            notifyError(new WayTodayError("Error while requesting locations", e));
+            return new LocationBatch();
+        }
+    }
+
+    /**
+     * Uploads the queue, the failed packs are retried according to the retry policy
+     * Blocks until the queue is uploaded or the policy gives up
+     */
     public void uploadLocations() {
+        for (; ; ) {
+            long backoffMs = uploadLocationsOnce();
+            if (backoffMs < 0)
+                return;
+            try {
+                Thread.sleep(backoffMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Uploads the queue once, the failure is reported to the errors listeners
+     * only when the retry policy gives up on it
+     * @return the backoff before the retry of the failed upload, -1 - no retry
+     */
+    long uploadLocationsOnce() {
         String tid = getCurrentTrackerId();
         if (tid.isEmpty()) {
             isError.set(true);
-            return;
+            return -1;
+        }
+        CircuitBreaker breaker = getCircuitBreaker();
+        if (breaker != null && !breaker.isCallPermitted()) {
+            isError.set(true);
+            notifyUploadLocationsState();
+            return -1;
         }
         if (!isUploading.compareAndSet(false, true))
-            return;
+            return -1;
         isError.set(false);
         notifyUploadLocationsState();
+        long backoffMs = -1;
         try {
-            uploadQueue(tid);
-            isUploading.set(false);
+            uploadFailure = null;
+            if (!uploadQueue(tid)) {
+                metrics.uploadFailures.increment();
+                backoffMs = retryBackoffMs(uploadFailure);
+                if (backoffMs >= 0)
+                    metrics.retries.increment();
+            }
+            if (backoffMs < 0 && uploadFailure != null)
+                notifyError(new WayTodayError("Error while uploading locations", uploadFailure));
         } catch (Exception e) {
             isError.set(true);
+            notifyError(new WayTodayError("Error while reading upload queue", e));
         } finally {
+            uploadFailure = null;
             isUploading.set(false);
             notifyUploadLocationsState();
         }
+        return backoffMs;
     }
 
-    WayTodayClient(IPersistedState persistedState, GrpcClient grpcClient) {
+    /**
+     * Only the retryable failures take a token from the retry budget
+     * @param failure null - the server refused the pack
+     */
+    private long retryBackoffMs(@Nullable Throwable failure) {
+        if (failure != null && !RetryPolicy.isRetryable(failure)) {
+            failedAttempts = 0;
+            return -1;
+        }
+        RetryPolicy policy = retryPolicy;
+        boolean withinBudget = policy.onFailure();
+        failedAttempts++;
+        if (!withinBudget || failedAttempts >= policy.getMaxAttempts()) {
+            failedAttempts = 0;
+            return -1;
+        }
+        return policy.backoffMs(failedAttempts);
+    }
+
+    private void onPackUploaded(long end, int locations) {
+        locationsQueue.removeUpTo(end);
+        metrics.packsUploaded.increment();
+        metrics.locationsUploaded.add(locations);
+        failedAttempts = 0;
+        retryPolicy.onSuccess();
+        requestLocations();
+    }
+
+    /**
+     * Releases the connections to the WayToday server
+     * The client must not be used after it is closed
+     */
+    @Override
+    public void close() {
+        for (LocationsSubscriber subscriber : locationsSubscribers) {
+            subscriber.cancel();
+        }
+        grpcClient.close();
+        locationsQueue.close();
+    }
+
+    WayTodayClient(IPersistedState persistedState, GrpcClient grpcClient, ILocationsQueue locationsQueue) {
         this.persistedState = persistedState;
         this.grpcClient = grpcClient;
+        this.locationsQueue = locationsQueue;
+        this.metrics = new WayTodayMetrics(locationsQueue, grpcClient);
     }
 
-    private void notifyError(WayTodayError error) {
+    WayTodayClient(IPersistedState persistedState, GrpcClient grpcClient) {
+        this(persistedState, grpcClient, new LocationsRingBuffer(MAX_LOCATIONS_MEMORY));
+    }
+
+    void notifyError(WayTodayError error) {
         List<IErrorsListener> listeners;
         synchronized (errorsListeners) {
             listeners = new ArrayList<>(errorsListeners);
         }
+        Object event = JfrEvents.listenersStarted();
         for (IErrorsListener listener : listeners) {
             try {
                 listener.onError(error);
@@ -163,6 +466,7 @@ public class WayTodayClient {
                 // ignore
             }
         }
+        JfrEvents.listenersEnded(event, "error", listeners.size());
     }
 
     private void notifyTrackIdChange(@Nonnull String trackId) {
@@ -170,6 +474,7 @@ public class WayTodayClient {
         synchronized (trackIdChangeListeners) {
             listeners = new ArrayList<>(trackIdChangeListeners);
         }
+        Object event = JfrEvents.listenersStarted();
         for (ITrackIdChangeListener listener : listeners) {
             try{
                 listener.onTrackId(trackId);
@@ -177,6 +482,7 @@ public class WayTodayClient {
                 // ignore
             }
         }
+        JfrEvents.listenersEnded(event, "trackId", listeners.size());
     }
 
     private void notifyUploadLocationsState() {
@@ -185,6 +491,7 @@ public class WayTodayClient {
         synchronized (uploadingLocationsStatusChangeListeners) {
             listeners = new ArrayList<>(uploadingLocationsStatusChangeListeners);
         }
+        Object event = JfrEvents.listenersStarted();
         for (IUploadingLocationsStatusChangeListener listener : listeners) {
             try {
                 listener.onStatusChange(status);
@@ -192,41 +499,151 @@ public class WayTodayClient {
                 // ignore
             }
         }
+        JfrEvents.listenersEnded(event, "status", listeners.size());
+    }
+
+    private void requestLocations() {
+        for (LocationsSubscriber subscriber : locationsSubscribers) {
+            subscriber.request();
+        }
     }
 
-    private void uploadQueue(@Nonnull final String tid) {
+    private void notifyCircuitBreakerState(@Nonnull CircuitBreaker.State state) {
+        List<IUploadingLocationsStatusChangeListener> listeners;
+        synchronized (uploadingLocationsStatusChangeListeners) {
+            listeners = new ArrayList<>(uploadingLocationsStatusChangeListeners);
+        }
+        Object event = JfrEvents.listenersStarted();
+        for (IUploadingLocationsStatusChangeListener listener : listeners) {
+            try {
+                listener.onCircuitBreakerStateChange(state);
+            } catch (Exception e) {
+                // ignore
+            }
+        }
+        JfrEvents.listenersEnded(event, "circuitBreaker", listeners.size());
+    }
+
+    private static long estimateSize(@Nonnull List<Location> pack) {
+        long bytes = 0;
+        for (Location location : pack) {
+            bytes += LocationGrpcBridge.estimateSize(location);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return false if a pack has failed, the error is left in uploadFailure
+     */
+    private boolean uploadQueue(@Nonnull final String tid) {
+        if (maxPacksInFlight > 1) {
+            return uploadQueuePipelined(tid);
+        }
         List<Location> pack = new ArrayList<>();
         for (; ; ) {
-            synchronized (locationsQueue) {
-                int packSize = Math.min(locationsQueue.size(), PACK_SIZE);
-                for (int i = 0; i < packSize; i++) {
-                    Location head = locationsQueue.peekFirst();
-                    if (head != null) {
-                        pack.add(head);
-                    }
-                }
-            }
+            long first = locationsQueue.peek(pack, packSize.get());
             if (pack.isEmpty()) {
                 break;
             }
+            long packBytes = estimateSize(pack);
+            JfrEvents.packAssembled(pack.size(), packBytes, 0);
             try {
+                long start = System.nanoTime();
                 Boolean ok = grpcClient.addLocations(tid, pack);
                 if (ok) {
-                    for (int i = 0; i < pack.size(); i++) {
-                        synchronized (locationsQueue) {
-                            locationsQueue.pollFirst();
-                        }
-                    }
+                    packSize.onSuccess(pack.size(), packBytes, System.nanoTime() - start);
+                    // the locations evicted while the pack was in flight are already gone
+                    onPackUploaded(first + pack.size(), pack.size());
                 } else {
+                    packSize.onFailure();
                     isError.set(true);
-                    break;
+                    return false;
                 }
             } catch (Exception e) {
+                packSize.onFailure();
                 isError.set(true);
-                notifyError(new WayTodayError("Error while uploading locations", e));
-                break;
+                uploadFailure = e;
+                return false;
             }
             pack.clear();
         }
+        return true;
+    }
+
+    private static final class PackInFlight {
+        final long end;
+        final int locations;
+        final long bytes;
+        final CompletableFuture<Boolean> ack;
+
+        PackInFlight(long end, int locations, long bytes, CompletableFuture<Boolean> ack) {
+            this.end = end;
+            this.locations = locations;
+            this.bytes = bytes;
+            this.ack = ack;
+        }
+    }
+
+    private boolean uploadQueuePipelined(@Nonnull final String tid) {
+        final int maxPacks = maxPacksInFlight;
+        final long maxBytes = maxBytesInFlight;
+        final Deque<PackInFlight> inFlight = new ArrayDeque<>(maxPacks);
+        boolean failed = false;
+        while (!failed) {
+            // a durable queue may be much longer than it is worth keeping in memory
+            int window = (int) Math.min(Integer.MAX_VALUE, (long) maxPacks * packSize.get());
+            List<Location> pending = new ArrayList<>(Math.min(window, locationsQueue.size()));
+            long first = locationsQueue.peek(pending, window);
+            if (pending.isEmpty()) {
+                break;
+            }
+            int next = 0;
+            long bytes = 0;
+            while ((!failed && next < pending.size()) || !inFlight.isEmpty()) {
+                while (!failed && next < pending.size() && inFlight.size() < maxPacks) {
+                    List<Location> pack = pending.subList(next, Math.min(pending.size(), next + packSize.get()));
+                    long packBytes = estimateSize(pack);
+                    if (!inFlight.isEmpty() && bytes + packBytes > maxBytes) {
+                        break;
+                    }
+                    JfrEvents.packAssembled(pack.size(), packBytes, inFlight.size());
+                    final long start = System.nanoTime();
+                    CompletableFuture<Boolean> ack = grpcClient.addLocationsAsync(tid, pack);
+                    ack.whenComplete((ok, e) -> {
+                        if (e == null && ok)
+                            packSize.onSuccess(pack.size(), packBytes, System.nanoTime() - start);
+                        else
+                            packSize.onFailure();
+                    });
+                    inFlight.addLast(new PackInFlight(first + next + pack.size(), pack.size(), packBytes, ack));
+                    bytes += packBytes;
+                    next += pack.size();
+                }
+                // the queue can be trimmed only in order, so wait for the oldest pack
+                PackInFlight oldest = inFlight.removeFirst();
+                bytes -= oldest.bytes;
+                try {
+                    Boolean ok = oldest.ack.get();
+                    if (!ok) {
+                        isError.set(true);
+                        failed = true;
+                    } else if (!failed) {
+                        onPackUploaded(oldest.end, oldest.locations);
+                    }
+                } catch (ExecutionException e) {
+                    if (!failed)
+                        uploadFailure = e.getCause();
+                    isError.set(true);
+                    failed = true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    inFlight.forEach(packInFlight -> packInFlight.ack.cancel(true));
+                    isError.set(true);
+                    // not a failure to retry or report
+                    return true;
+                }
+            }
+        }
+        return !failed;
     }
-}
\ No newline at end of file
+}
@@ -1,19 +1,91 @@
 package solutions.s4y.waytoday.sdk;
 
+import org.reactivestreams.Publisher;
+
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This class is asynchronous wrapper around WayTodayClient
+ * The *Async methods are built on the non-blocking gRPC calls and do not take
+ * a thread while the call is in flight, cancelling their futures cancels the calls.
+ * The submit* methods run the blocking methods on a small pool of threads
+ * or, if asked, on virtual threads of JDK 21+.
  * It is thread safe
  */
 public class WayTodayClientAsync extends WayTodayClient {
-    private final ExecutorService executor = Executors.newCachedThreadPool();
+    // the uploads are serialized anyway, a second thread lets a tracker id request pass an upload
+    private static final int THREADS = 2;
+    private static final long CLOSE_TIMEOUT_MS = 30_000;
+    // the interrupted tasks get that long to stop using the connections and the queue
+    private static final long INTERRUPT_TIMEOUT_MS = 5_000;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    @Nullable
+    private final Executor callbackExecutor;
+    private volatile int autoUploadSize = 0;
+    private volatile long autoUploadAgeMs = 0;
+    @Nullable
+    private volatile ScheduledExecutorService autoUploadTimer;
+    // an upload run is submitted and has not started yet
+    private final AtomicBoolean uploadScheduled = new AtomicBoolean();
+    private final AtomicBoolean ageTimerArmed = new AtomicBoolean();
 
     public WayTodayClientAsync(IPersistedState persistedState) {
         super(persistedState);
+        this.callbackExecutor = null;
+        this.executor = newPlatformExecutor();
+        this.virtualThreads = false;
+    }
+
+    public WayTodayClientAsync(IPersistedState persistedState, ILocationsQueue locationsQueue) {
+        this(persistedState, locationsQueue, null);
+    }
+
+    /**
+     * @param callbackExecutor completes the futures of the *Async methods,
+     *                         null - the gRPC default executor
+     */
+    public WayTodayClientAsync(IPersistedState persistedState, ILocationsQueue locationsQueue, @Nullable Executor callbackExecutor) {
+        this(persistedState, locationsQueue, callbackExecutor, false);
+    }
+
+    /**
+     * @param virtualThreads run the submitted tasks on virtual threads, ignored before JDK 21
+     */
+    public WayTodayClientAsync(IPersistedState persistedState, ILocationsQueue locationsQueue, @Nullable Executor callbackExecutor, boolean virtualThreads) {
+        super(persistedState, locationsQueue);
+        this.callbackExecutor = callbackExecutor;
+        ExecutorService virtual = virtualThreads ? VirtualThreads.newPerTaskExecutor() : null;
+        this.executor = virtual == null ? newPlatformExecutor() : virtual;
+        this.virtualThreads = virtual != null;
+    }
+
+    private static ExecutorService newPlatformExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                THREADS, THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @return true if the submitted tasks run on virtual threads
+     */
+    @SuppressWarnings("unused")
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
     }
 
     @SuppressWarnings("UnusedReturnValue")
@@ -25,7 +97,211 @@ public class WayTodayClientAsync extends WayTodayClient {
         executor.execute(this::uploadLocations);
     }
 
+    /**
+     * Uploads the queue without being asked: once it has maxSize locations or maxAgeMs
+     * after the first location enqueued to it. The triggers coming while an upload run is
+     * pending are merged into that run. A failed run is retried after the backoff of the
+     * retry policy without holding a thread, or maxAgeMs later if the policy gives up.
+     * @param maxSize 0 - do not upload by the size
+     * @param maxAgeMs 0 - do not upload by the age
+     */
+    @SuppressWarnings("unused")
+    public synchronized void setAutoUpload(int maxSize, long maxAgeMs) {
+        if (maxSize < 0 || maxAgeMs < 0)
+            throw new IllegalArgumentException("Invalid auto upload: maxSize=" + maxSize + ", maxAgeMs=" + maxAgeMs);
+        if ((maxSize > 0 || maxAgeMs > 0) && autoUploadTimer == null)
+            autoUploadTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "waytoday-auto-upload");
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.autoUploadSize = maxSize;
+        this.autoUploadAgeMs = maxAgeMs;
+        if (!locationsQueue.isEmpty())
+            armAgeTimer();
+    }
+
+    /**
+     * Starts an upload run now unless one is pending already
+     */
+    public void flush() {
+        if (!uploadScheduled.compareAndSet(false, true))
+            return;
+        try {
+            executor.execute(this::autoUpload);
+        } catch (RejectedExecutionException e) {
+            // closed
+            uploadScheduled.set(false);
+        }
+    }
+
+    @Override
+    public void enqueueLocationToUpload(Location location) {
+        super.enqueueLocationToUpload(location);
+        int maxSize = autoUploadSize;
+        if (maxSize > 0 && locationsQueue.size() >= maxSize)
+            flush();
+        else
+            armAgeTimer();
+    }
+
+    private void autoUpload() {
+        // the triggers from now on need another run
+        uploadScheduled.set(false);
+        ScheduledExecutorService timer = autoUploadTimer;
+        if (timer == null) {
+            uploadLocations();
+            return;
+        }
+        long backoffMs = uploadLocationsOnce();
+        if (backoffMs >= 0) {
+            try {
+                timer.schedule(this::flush, backoffMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // closed
+            }
+        } else if (!locationsQueue.isEmpty()) {
+            armAgeTimer();
+        }
+    }
+
+    private void armAgeTimer() {
+        long maxAgeMs = autoUploadAgeMs;
+        ScheduledExecutorService timer = autoUploadTimer;
+        if (maxAgeMs == 0 || timer == null || !ageTimerArmed.compareAndSet(false, true))
+            return;
+        try {
+            timer.schedule(() -> {
+                ageTimerArmed.set(false);
+                flush();
+            }, maxAgeMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // closed
+            ageTimerArmed.set(false);
+        }
+    }
+
+    /**
+     * Same as requestNewTrackerId: the id is persisted and the listeners are notified
+     * before the future completes
+     */
+    public CompletableFuture<String> requestNewTrackerIdAsync(@Nullable String prevId) {
+        return requestNewTrackerIdAsync(prevId, callbackExecutor);
+    }
+
+    public CompletableFuture<Boolean> testTrackerIdAsync(@Nonnull String tid) {
+        return reportErrors(grpcClient.testTrackerIdAsync(tid, callbackExecutor), "Error while testing tracker id");
+    }
+
+    public CompletableFuture<Boolean> freeTrackerIdAsync(@Nonnull String tid) {
+        return reportErrors(grpcClient.freeTrackerIdAsync(tid, callbackExecutor), "Error while freeing tracker id");
+    }
+
+    public CompletableFuture<LocationBatch> getLocationsAsync(@Nonnull String tid, int limit) {
+        return reportErrors(grpcClient.getLocationBatchAsync(tid, limit, callbackExecutor), "Error while requesting locations");
+    }
+
+    /**
+     * Same as getLocationsAsync for the reactive pipelines: every subscriber makes its own call
+     * on its first request and receives the locations as it requests them
+     */
+    @Nonnull
+    public Publisher<Location> getLocationsPublisher(@Nonnull String tid, int limit) {
+        return new LocationsPublisher(() -> getLocationsAsync(tid, limit));
+    }
+
+    /**
+     * Uploads the locations directly, bypassing the queue
+     */
+    public CompletableFuture<Boolean> addLocationsAsync(@Nonnull String tid, @Nonnull List<Location> locations) {
+        return reportErrors(grpcClient.addLocationsAsync(tid, locations, callbackExecutor), "Error while uploading locations");
+    }
+
+    public CompletableFuture<String> pingAsync(@Nullable String payload) {
+        return reportErrors(grpcClient.pingAsync(payload, callbackExecutor), "Error while pinging");
+    }
+
+    private <T> CompletableFuture<T> reportErrors(CompletableFuture<T> call, String message) {
+        return cancelling(call, call.whenComplete((value, e) -> {
+            if (e != null && !call.isCancelled())
+                notifyError(new WayTodayError(message, e));
+        }));
+    }
+
+    /**
+     * Stops accepting new tasks and releases the connections
+     * The tasks already submitted are allowed to complete within 30s before the connections
+     * are closed, then they are interrupted. Unlike close(timeout, unit) the queue is not flushed.
+     */
+    @Override
+    public void close() {
+        stopAutoUpload();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+                interruptTasks();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            interruptTasks();
+        } finally {
+            super.close();
+        }
+    }
+
+    /**
+     * Uploads the queued locations and closes the client
+     * The tasks already submitted are allowed to complete within the timeout, then they are interrupted
+     * and given up to 5s more to stop before the connections are closed.
+     * @return true if the queue is empty when the method returns. An upload interrupted by the timeout
+     * may have reached the server without its locations being removed from the queue.
+     */
+    @SuppressWarnings("unused")
+    public boolean close(long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        stopAutoUpload();
+        if (!locationsQueue.isEmpty())
+            flush();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeout, unit))
+                interruptTasks();
+            return locationsQueue.isEmpty();
+        } catch (InterruptedException e) {
+            interruptTasks();
+            throw e;
+        } finally {
+            super.close();
+        }
+    }
+
+    /**
+     * Interrupts the running tasks and waits for them to stop, the interrupt status of the caller is kept
+     */
+    private void interruptTasks() {
+        executor.shutdownNow();
+        boolean interrupted = Thread.interrupted();
+        try {
+            executor.awaitTermination(INTERRUPT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void stopAutoUpload() {
+        autoUploadSize = 0;
+        autoUploadAgeMs = 0;
+        if (autoUploadTimer != null)
+            autoUploadTimer.shutdownNow();
+        // the final upload retries in place
+        autoUploadTimer = null;
+    }
+
     WayTodayClientAsync(IPersistedState persistedState, GrpcClient grpcClient) {
         super(persistedState, grpcClient);
+        this.callbackExecutor = null;
+        this.executor = newPlatformExecutor();
+        this.virtualThreads = false;
     }
-}
\ No newline at end of file
+}
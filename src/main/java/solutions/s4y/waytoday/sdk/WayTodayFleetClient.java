@@ -0,0 +1,479 @@
+package solutions.s4y.waytoday.sdk;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client relaying the locations of many trackers over one shared connection
+ * Every tracker has its own lock-free queue. A tracker with queued locations waits
+ * for its turn in the FIFO of the bounded worker pool, a turn uploads up to
+ * weight * quantum locations and puts the tracker back to the end of the FIFO if it
+ * has more, so a chatty tracker can not starve the others (deficit round robin).
+ * A tracker whose upload failed is retried after the backoff of the retry policy, the same
+ * way WayTodayClient.uploadLocations() retries, and waits for uploadLocations() once the
+ * policy gives up. The locations enqueued meanwhile do not trigger the uploads.
+ * With setCoalescing() the locations of many trackers are merged into one call
+ * instead, see there.
+ * It is thread safe.
+ */
+public class WayTodayFleetClient implements AutoCloseable {
+    public static final int DEFAULT_WORKERS = 4;
+    public static final int DEFAULT_MAX_LOCATIONS_PER_TRACKER = WayTodayClient.MAX_LOCATIONS_MEMORY;
+    private static final long CLOSE_TIMEOUT_MS = 30_000;
+
+    private final GrpcClient grpcClient;
+    private final ExecutorService workers;
+    private final int maxLocationsPerTracker;
+    private final ConcurrentHashMap<String, Tracker> trackers = new ConcurrentHashMap<>();
+    private volatile int quantum = WayTodayClient.PACK_SIZE;
+    // coalescing: the trackers waiting for the next batch and the locations they brought
+    private volatile long lingerMs = 0;
+    private volatile int batchSize = 0;
+    private volatile RetryPolicy retryPolicy = RetryPolicy.NONE;
+    // the lingering batches and the retries
+    private ScheduledExecutorService timer;
+    private final ConcurrentLinkedQueue<Tracker> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean lingering = new AtomicBoolean();
+    final ArrayList<IErrorsListener> errorsListeners = new ArrayList<>(2);
+
+    private static final class Tracker {
+        final String tid;
+        final LocationsRingBuffer queue;
+        // the tracker is either waiting in the FIFO of the workers or being uploaded
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        volatile int weight = 1;
+        volatile boolean uploading = false;
+        volatile boolean error = false;
+        // guarded by scheduled
+        int failedAttempts = 0;
+
+        Tracker(String tid, int maxLocations) {
+            this.tid = tid;
+            this.queue = new LocationsRingBuffer(maxLocations);
+        }
+    }
+
+    public WayTodayFleetClient() {
+        this(DEFAULT_WORKERS, DEFAULT_MAX_LOCATIONS_PER_TRACKER);
+    }
+
+    /**
+     * @param workers                the number of the concurrent uploads
+     * @param maxLocationsPerTracker the oldest locations of a tracker are dropped beyond that number
+     */
+    public WayTodayFleetClient(int workers, int maxLocationsPerTracker) {
+        this(workers, maxLocationsPerTracker, false);
+    }
+
+    /**
+     * @param virtualThreads run the workers on virtual threads, ignored before JDK 21.
+     *                       Thousands of workers are cheap then.
+     */
+    public WayTodayFleetClient(int workers, int maxLocationsPerTracker, boolean virtualThreads) {
+        this(new GrpcClient(), workers, maxLocationsPerTracker, virtualThreads);
+    }
+
+    WayTodayFleetClient(GrpcClient grpcClient, int workers, int maxLocationsPerTracker) {
+        this(grpcClient, workers, maxLocationsPerTracker, false);
+    }
+
+    WayTodayFleetClient(GrpcClient grpcClient, int workers, int maxLocationsPerTracker, boolean virtualThreads) {
+        if (workers < 1)
+            throw new IllegalArgumentException("workers must be positive: " + workers);
+        this.grpcClient = grpcClient;
+        ThreadFactory factory = virtualThreads ? VirtualThreads.factory("waytoday-fleet-") : null;
+        this.workers = factory == null
+                ? Executors.newFixedThreadPool(workers)
+                : Executors.newFixedThreadPool(workers, factory);
+        this.maxLocationsPerTracker = maxLocationsPerTracker;
+    }
+
+    public void addErrorsListener(IErrorsListener listener) {
+        synchronized (errorsListeners) {
+            errorsListeners.add(listener);
+        }
+    }
+
+    public void removeErrorsListener(IErrorsListener listener) {
+        synchronized (errorsListeners) {
+            errorsListeners.remove(listener);
+        }
+    }
+
+    private Tracker tracker(String tid) {
+        return trackers.computeIfAbsent(tid, key -> new Tracker(key, maxLocationsPerTracker));
+    }
+
+    /**
+     * Queues the location of the tracker and schedules its upload unless its last upload failed
+     */
+    public void enqueueLocationToUpload(@Nonnull String tid, @Nonnull Location location) {
+        Tracker tracker = tracker(tid);
+        tracker.queue.offer(location);
+        if (!tracker.error)
+            schedule(tracker, 1);
+    }
+
+    /**
+     * Schedules the upload of all trackers with queued locations, i.e. after the errors
+     * The trackers waiting for the backoff of a retry keep waiting.
+     */
+    public void uploadLocations() {
+        for (Tracker tracker : trackers.values()) {
+            if (!tracker.queue.isEmpty())
+                schedule(tracker, tracker.queue.size());
+        }
+        if (lingerMs > 0)
+            submit(this::flush);
+    }
+
+    /**
+     * @param weight the tracker gets weight times more locations uploaded per turn than the others
+     */
+    @SuppressWarnings("unused")
+    public void setWeight(@Nonnull String tid, int weight) {
+        if (weight < 1)
+            throw new IllegalArgumentException("weight must be positive: " + weight);
+        tracker(tid).weight = weight;
+    }
+
+    /**
+     * @param quantum the number of locations a tracker of weight 1 uploads per turn, one pack
+     */
+    @SuppressWarnings("unused")
+    public void setQuantum(int quantum) {
+        if (quantum < 1)
+            throw new IllegalArgumentException("quantum must be positive: " + quantum);
+        this.quantum = quantum;
+    }
+
+    /**
+     * Merges the locations of many trackers into one call, like linger.ms/batch.size of Kafka
+     * The batch is sent once it collects batchSize locations or lingerMs after its first
+     * location. Every location carries the id of its tracker, so the server must take the
+     * tracker from the location rather than from the request. Call it before enqueueing.
+     * @param lingerMs 0 - upload every tracker with its own calls (default)
+     */
+    @SuppressWarnings("unused")
+    public synchronized void setCoalescing(long lingerMs, int batchSize) {
+        if (lingerMs < 0 || batchSize < 1)
+            throw new IllegalArgumentException("Invalid coalescing: lingerMs=" + lingerMs + ", batchSize=" + batchSize);
+        if (lingerMs > 0)
+            startTimer();
+        this.batchSize = batchSize;
+        this.lingerMs = lingerMs;
+    }
+
+    /**
+     * Lets the failed uploads be retried with the backoff instead of waiting for uploadLocations()
+     * A coalesced batch takes one token of the budget for all its trackers.
+     * @param retryPolicy RetryPolicy.NONE (default) - do not retry
+     */
+    @SuppressWarnings("unused")
+    public synchronized void setRetryPolicy(@Nonnull RetryPolicy retryPolicy) {
+        if (retryPolicy.getMaxAttempts() > 1)
+            startTimer();
+        this.retryPolicy = retryPolicy;
+    }
+
+    private synchronized void startTimer() {
+        if (timer == null)
+            timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "waytoday-fleet-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    public int getQueueSize(@Nonnull String tid) {
+        Tracker tracker = trackers.get(tid);
+        return tracker == null ? 0 : tracker.queue.size();
+    }
+
+    /**
+     * @return the oldest locations of the tracker dropped by the full queue
+     */
+    long getDropped(@Nonnull String tid) {
+        Tracker tracker = trackers.get(tid);
+        return tracker == null ? 0 : tracker.queue.dropped();
+    }
+
+    @Nonnull
+    public UploadingLocationsStatus getUploadingLocationsStatus(@Nonnull String tid) {
+        Tracker tracker = trackers.get(tid);
+        if (tracker == null)
+            return UploadingLocationsStatus.EMPTY;
+        if (tracker.error)
+            return UploadingLocationsStatus.ERROR;
+        if (tracker.uploading)
+            return UploadingLocationsStatus.UPLOADING;
+        if (!tracker.queue.isEmpty())
+            return UploadingLocationsStatus.QUEUED;
+        return UploadingLocationsStatus.EMPTY;
+    }
+
+    /**
+     * Forgets the tracker dropping its queued locations
+     */
+    @SuppressWarnings("unused")
+    public void removeTracker(@Nonnull String tid) {
+        trackers.remove(tid);
+    }
+
+    /**
+     * Stops accepting new uploads and releases the connections
+     * The turns already scheduled are allowed to complete within 30 seconds, then they are interrupted.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (timer != null)
+                timer.shutdownNow();
+        }
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+                workers.shutdownNow();
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        } finally {
+            grpcClient.close();
+        }
+    }
+
+    private boolean submit(Runnable task) {
+        try {
+            workers.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            // closed
+            return false;
+        }
+    }
+
+    private void schedule(Tracker tracker, int added) {
+        if (lingerMs > 0) {
+            coalesce(tracker, added);
+            return;
+        }
+        if (!tracker.scheduled.compareAndSet(false, true))
+            return;
+        if (!submit(() -> turn(tracker)))
+            tracker.scheduled.set(false);
+    }
+
+    private void coalesce(Tracker tracker, int added) {
+        if (tracker.scheduled.compareAndSet(false, true))
+            ready.add(tracker);
+        if (pending.addAndGet(added) >= batchSize) {
+            pending.set(0);
+            submit(this::flush);
+        } else {
+            linger();
+        }
+    }
+
+    private void linger() {
+        if (lingering.compareAndSet(false, true)) {
+            try {
+                timer.schedule(() -> {
+                    lingering.set(false);
+                    submit(this::flush);
+                }, lingerMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // closed
+                lingering.set(false);
+            }
+        }
+    }
+
+    /**
+     * Sends one batch taking up to weight * quantum locations of every ready tracker in turn
+     */
+    private void flush() {
+        int size = batchSize;
+        List<Location> batch = new ArrayList<>(size);
+        List<Tracker> taken = new ArrayList<>();
+        List<Integer> starts = new ArrayList<>();
+        List<Long> ends = new ArrayList<>();
+        Tracker tracker;
+        while (batch.size() < size && (tracker = ready.poll()) != null) {
+            int before = batch.size();
+            long first = tracker.queue.peek(batch, Math.min(tracker.weight * quantum, size - before));
+            int count = batch.size() - before;
+            if (count == 0) {
+                release(tracker, false);
+                continue;
+            }
+            tracker.uploading = true;
+            taken.add(tracker);
+            starts.add(before);
+            ends.add(first + count);
+        }
+        // the trackers left for the next batch
+        if (!ready.isEmpty())
+            linger();
+        if (taken.isEmpty())
+            return;
+        Map<String, List<Location>> byTid = new LinkedHashMap<>();
+        for (int i = 0; i < taken.size(); i++) {
+            int end = i + 1 < taken.size() ? starts.get(i + 1) : batch.size();
+            byTid.put(taken.get(i).tid, batch.subList(starts.get(i), end));
+        }
+        boolean failed = false;
+        Throwable failure = null;
+        try {
+            failed = !grpcClient.addLocationsOfTrackers(byTid);
+        } catch (Exception e) {
+            failure = e;
+            failed = true;
+        }
+        long backoffMs = failed ? retryBackoffMs(taken, failure) : -1;
+        if (!failed)
+            retryPolicy.onSuccess();
+        for (int i = 0; i < taken.size(); i++) {
+            tracker = taken.get(i);
+            if (!failed) {
+                tracker.queue.removeUpTo(ends.get(i));
+                tracker.failedAttempts = 0;
+            }
+            tracker.error = failed;
+            tracker.uploading = false;
+        }
+        // the trackers stay scheduled until the retry puts them back to the next batch
+        if (backoffMs >= 0 && retry(() -> {
+            ready.addAll(taken);
+            submit(this::flush);
+        }, backoffMs))
+            return;
+        if (failure != null)
+            notifyError(new WayTodayError("Error while uploading locations of " + taken.size() + " trackers", failure));
+        for (Tracker released : taken) {
+            release(released, failed);
+        }
+    }
+
+    private void release(Tracker tracker, boolean failed) {
+        tracker.scheduled.set(false);
+        // the locations enqueued while the tracker was taken did not schedule it
+        if (!failed && !tracker.queue.isEmpty())
+            coalesce(tracker, tracker.queue.size());
+    }
+
+    private void turn(Tracker tracker) {
+        tracker.uploading = true;
+        tracker.error = false;
+        int credit = tracker.weight * quantum;
+        List<Location> pack = new ArrayList<>();
+        boolean failed = false;
+        Throwable failure = null;
+        while (credit > 0) {
+            pack.clear();
+            long first = tracker.queue.peek(pack, Math.min(credit, quantum));
+            if (pack.isEmpty())
+                break;
+            try {
+                if (!grpcClient.addLocations(tracker.tid, pack)) {
+                    failed = true;
+                    break;
+                }
+            } catch (Exception e) {
+                failure = e;
+                failed = true;
+                break;
+            }
+            tracker.queue.removeUpTo(first + pack.size());
+            tracker.failedAttempts = 0;
+            retryPolicy.onSuccess();
+            credit -= pack.size();
+        }
+        long backoffMs = failed ? retryBackoffMs(Collections.singletonList(tracker), failure) : -1;
+        tracker.error = failed;
+        tracker.uploading = false;
+        if (failed) {
+            // the tracker stays scheduled until the retry, so the enqueued locations do not trigger it
+            if (backoffMs >= 0 && retry(() -> {
+                if (!submit(() -> turn(tracker)))
+                    tracker.scheduled.set(false);
+            }, backoffMs))
+                return;
+            if (failure != null)
+                notifyError(new WayTodayError("Error while uploading locations of " + tracker.tid, failure));
+        }
+        tracker.scheduled.set(false);
+        // back to the end of the FIFO, the locations enqueued during the turn are caught here too
+        if (!failed && !tracker.queue.isEmpty())
+            schedule(tracker, 0);
+    }
+
+    /**
+     * Only the retryable failures take a token from the retry budget, like in WayTodayClient
+     * @param failure null - the server refused the locations
+     * @return the backoff before the retry of the trackers, -1 - no retry
+     */
+    private long retryBackoffMs(List<Tracker> failed, @Nullable Throwable failure) {
+        if (failure != null && !RetryPolicy.isRetryable(failure)) {
+            for (Tracker tracker : failed) {
+                tracker.failedAttempts = 0;
+            }
+            return -1;
+        }
+        RetryPolicy policy = retryPolicy;
+        boolean withinBudget = policy.onFailure();
+        int attempt = 0;
+        for (Tracker tracker : failed) {
+            attempt = Math.max(attempt, ++tracker.failedAttempts);
+        }
+        if (!withinBudget || attempt >= policy.getMaxAttempts()) {
+            for (Tracker tracker : failed) {
+                tracker.failedAttempts = 0;
+            }
+            return -1;
+        }
+        return policy.backoffMs(attempt);
+    }
+
+    /**
+     * @return false if the client is closed
+     */
+    private boolean retry(Runnable task, long backoffMs) {
+        try {
+            timer.schedule(task, backoffMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            // closed
+            return false;
+        }
+    }
+
+    private void notifyError(WayTodayError error) {
+        List<IErrorsListener> listeners;
+        synchronized (errorsListeners) {
+            listeners = new ArrayList<>(errorsListeners);
+        }
+        for (IErrorsListener listener : listeners) {
+            try {
+                listener.onError(error);
+            } catch (Exception e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package solutions.s4y.waytoday.sdk;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters of the client, cheap enough to be updated on every enqueue
+ * Read them directly or export them with bindTo(IMetricsRegistry). The bytes sent,
+ * the reconnects and the latencies are of the gRPC client, so the clients sharing it
+ * report the same values.
+ */
+public final class WayTodayMetrics {
+    private final ILocationsQueue locationsQueue;
+    private final GrpcClient grpcClient;
+    final LongAdder enqueued = new LongAdder();
+    final LongAdder packsUploaded = new LongAdder();
+    final LongAdder locationsUploaded = new LongAdder();
+    final LongAdder retries = new LongAdder();
+    final LongAdder uploadFailures = new LongAdder();
+
+    WayTodayMetrics(@Nonnull ILocationsQueue locationsQueue, @Nonnull GrpcClient grpcClient) {
+        this.locationsQueue = locationsQueue;
+        this.grpcClient = grpcClient;
+    }
+
+    public long getQueueDepth() {
+        return locationsQueue.size();
+    }
+
+    public long getEnqueued() {
+        return enqueued.sum();
+    }
+
+    /**
+     * @return the locations evicted from the full queue
+     */
+    public long getDropped() {
+        return locationsQueue.dropped();
+    }
+
+    /**
+     * @return the packs acknowledged by the server
+     */
+    public long getPacksUploaded() {
+        return packsUploaded.sum();
+    }
+
+    public long getLocationsUploaded() {
+        return locationsUploaded.sum();
+    }
+
+    /**
+     * @return the serialized size of the requests of all the calls
+     */
+    public long getBytesSent() {
+        return grpcClient.bytesSent.sum();
+    }
+
+    /**
+     * @return the failed uploads retried according to the retry policy
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * @return the failed upload attempts, the retried ones included
+     */
+    public long getUploadFailures() {
+        return uploadFailures.sum();
+    }
+
+    /**
+     * @return the times a channel got connected again after losing its connection
+     */
+    public long getReconnects() {
+        return grpcClient.getReconnects();
+    }
+
+    @Nonnull
+    public LatencyHistogram getLatency(@Nonnull GrpcOperation operation) {
+        return grpcClient.getLatency(operation);
+    }
+
+    /**
+     * Registers the meters named waytoday.*, the latencies are waytoday.grpc.latency of every operation
+     */
+    public void bindTo(@Nonnull IMetricsRegistry registry) {
+        registry.gauge("waytoday.queue.depth", this, WayTodayMetrics::getQueueDepth);
+        registry.counter("waytoday.locations.enqueued", this, WayTodayMetrics::getEnqueued);
+        registry.counter("waytoday.locations.dropped", this, WayTodayMetrics::getDropped);
+        registry.counter("waytoday.locations.uploaded", this, WayTodayMetrics::getLocationsUploaded);
+        registry.counter("waytoday.packs.uploaded", this, WayTodayMetrics::getPacksUploaded);
+        registry.counter("waytoday.upload.retries", this, WayTodayMetrics::getRetries);
+        registry.counter("waytoday.upload.failures", this, WayTodayMetrics::getUploadFailures);
+        registry.counter("waytoday.grpc.bytes.sent", this, WayTodayMetrics::getBytesSent);
+        registry.counter("waytoday.grpc.reconnects", this, WayTodayMetrics::getReconnects);
+        for (GrpcOperation operation : GrpcOperation.values()) {
+            registry.latency("waytoday.grpc.latency", operation, getLatency(operation));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "queued=" + getQueueDepth() + " enqueued=" + getEnqueued() + " dropped=" + getDropped()
+                + " uploaded=" + getLocationsUploaded() + " packs=" + getPacksUploaded() + " bytes=" + getBytesSent()
+                + " retries=" + getRetries() + " failures=" + getUploadFailures() + " reconnects=" + getReconnects();
+    }
+}
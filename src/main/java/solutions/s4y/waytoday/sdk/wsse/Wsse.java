@@ -3,34 +3,78 @@ package solutions.s4y.waytoday.sdk.wsse;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.Base64;
 import java.util.Date;
 
 
 public class Wsse {
-    static private String sha1(String text) throws NoSuchAlgorithmException {
-        MessageDigest md = MessageDigest.getInstance("SHA");
-        md.update(text.getBytes(StandardCharsets.UTF_8));
-        byte[] digest = md.digest();
-        return Base64.getEncoder().encodeToString(digest);
+    // MessageDigest is neither thread safe nor cheap to look up, so every thread keeps its own
+    private static final ThreadLocal<MessageDigest> sha1 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    });
+    private static final ThreadLocal<SecureRandom> random = ThreadLocal.withInitial(SecureRandom::new);
+    private static final Base64.Encoder base64 = Base64.getEncoder();
+
+    // Date.toString() has the resolution of a second, no need to format it more often
+    private static final class Created {
+        final long second;
+        final String text;
+
+        Created(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+
+    private static volatile Created created = new Created(-1, "");
+
+    private static MessageDigest sha1() throws NoSuchAlgorithmException {
+        MessageDigest md = sha1.get();
+        if (md == null)
+            throw new NoSuchAlgorithmException("SHA MessageDigest not available");
+        return md;
     }
 
-    private static String digest(String password, String nonce, String created) throws NoSuchAlgorithmException {
-        String text = nonce + created + password;
-        return sha1(text);
+    private static String created() {
+        long now = System.currentTimeMillis();
+        long second = now / 1000;
+        Created c = created;
+        if (c.second != second) {
+            c = new Created(second, new Date(second * 1000).toString());
+            created = c;
+        }
+        return c.text;
+    }
+
+    private static String digest(byte[] password, String nonce, String created) throws NoSuchAlgorithmException {
+        MessageDigest md = sha1();
+        md.reset();
+        md.update(nonce.getBytes(StandardCharsets.UTF_8));
+        md.update(created.getBytes(StandardCharsets.UTF_8));
+        md.update(password);
+        return base64.encodeToString(md.digest());
     }
 
     static String testDigest(@SuppressWarnings("SameParameterValue") String password, String nonce, String created) throws NoSuchAlgorithmException {
-        return digest(password, nonce, created);
+        return digest(password.getBytes(StandardCharsets.UTF_8), nonce, created);
     }
 
-    public static String getToken(String principal, String secret) throws NoSuchAlgorithmException {
-        String nonce = String.valueOf(Math.random());
-        String created = new Date().toString();
+    static String getToken(String principal, byte[] secret) throws NoSuchAlgorithmException {
+        String nonce = String.valueOf(random.get().nextDouble());
+        String created = created();
         String digest = digest(secret, nonce, created);
         return "Username=\"" + principal + "\"," +
                 "PasswordDigest=\"" + digest + "\"," +
                 "nonce=\"" + nonce + "\"," +
                 "Created=\"" + created + "\"";
     }
+
+    public static String getToken(String principal, String secret) throws NoSuchAlgorithmException {
+        return getToken(principal, secret.getBytes(StandardCharsets.UTF_8));
+    }
 }
@@ -0,0 +1,66 @@
+package solutions.s4y.waytoday.sdk.wsse;
+
+import io.grpc.CallCredentials;
+import io.grpc.Metadata;
+import io.grpc.Status;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+
+/**
+ * Attaches the WSSE header to every call made over a shared channel
+ * By default a fresh token is minted for each call, with a positive validity
+ * the same token is reused by the calls made within that many milliseconds.
+ */
+public class WsseCallCredentials extends CallCredentials {
+    static final Metadata.Key<String> WSSE_KEY = Metadata.Key.of("wsse", Metadata.ASCII_STRING_MARSHALLER);
+
+    private static final class Token {
+        final String value;
+        final long expiresAt;
+
+        Token(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final String principal;
+    private final byte[] secret;
+    private final long validityMs;
+    private volatile Token cached = new Token("", 0);
+
+    public WsseCallCredentials(@Nonnull String principal, @Nonnull String secret, long validityMs) {
+        this.principal = principal;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.validityMs = validityMs;
+    }
+
+    public WsseCallCredentials(@Nonnull String principal, @Nonnull String secret) {
+        this(principal, secret, 0);
+    }
+
+    String token() throws Exception {
+        if (validityMs <= 0)
+            return Wsse.getToken(principal, secret);
+        long now = System.currentTimeMillis();
+        Token token = cached;
+        if (now >= token.expiresAt) {
+            token = new Token(Wsse.getToken(principal, secret), now + validityMs);
+            cached = token;
+        }
+        return token.value;
+    }
+
+    @Override
+    public void applyRequestMetadata(RequestInfo requestInfo, Executor appExecutor, MetadataApplier applier) {
+        try {
+            Metadata headers = new Metadata();
+            headers.put(WSSE_KEY, token());
+            applier.apply(headers);
+        } catch (Exception e) {
+            applier.fail(Status.UNAUTHENTICATED.withDescription("Failed to create WSSE token").withCause(e));
+        }
+    }
+}
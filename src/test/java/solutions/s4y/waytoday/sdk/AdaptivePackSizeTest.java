@@ -0,0 +1,69 @@
+package solutions.s4y.waytoday.sdk;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdaptivePackSizeTest {
+    private static final long FAST = 10_000_000L;
+    private static final long SLOW = 5_000_000_000L;
+
+    @Test
+    public void packSize_shouldGrowAfterFastFullPack() {
+        // Arrange
+        AdaptivePackSize packSize = new AdaptivePackSize(16, 1000);
+        // Act
+        packSize.onSuccess(16, 16 * 100, FAST);
+        // Assert
+        assertThat(packSize.get()).isEqualTo(16 + AdaptivePackSize.INCREMENT);
+    }
+
+    @Test
+    public void packSize_shouldNotGrowAfterPartialPack() {
+        // Arrange
+        AdaptivePackSize packSize = new AdaptivePackSize(16, 1000);
+        // Act
+        packSize.onSuccess(3, 300, FAST);
+        // Assert
+        assertThat(packSize.get()).isEqualTo(16);
+    }
+
+    @Test
+    public void packSize_shouldHalveOnSlowPackAndFailure() {
+        // Arrange
+        AdaptivePackSize packSize = new AdaptivePackSize(16, 1000);
+        // Act
+        packSize.onSuccess(16, 1600, SLOW);
+        int afterSlow = packSize.get();
+        packSize.onFailure();
+        // Assert
+        assertThat(afterSlow).isEqualTo(8);
+        assertThat(packSize.get()).isEqualTo(4);
+    }
+
+    @Test
+    public void packSize_shouldNotGoBelowMinimum() {
+        // Arrange
+        AdaptivePackSize packSize = new AdaptivePackSize(2, 1000);
+        // Act
+        for (int i = 0; i < 10; i++) {
+            packSize.onFailure();
+        }
+        // Assert
+        assertThat(packSize.get()).isEqualTo(AdaptivePackSize.MIN_PACK_SIZE);
+    }
+
+    @Test
+    public void packSize_shouldBeCappedByRequestSize() {
+        // Arrange
+        AdaptivePackSize packSize = new AdaptivePackSize(16, 1000);
+        long bytesPerLocation = AdaptivePackSize.MAX_REQUEST_BYTES / 20;
+        // Act
+        for (int i = 0; i < 10; i++) {
+            int size = packSize.get();
+            packSize.onSuccess(size, size * bytesPerLocation, FAST);
+        }
+        // Assert
+        assertThat(packSize.get()).isEqualTo(20);
+    }
+}
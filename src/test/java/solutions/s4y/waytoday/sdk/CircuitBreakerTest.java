@@ -0,0 +1,90 @@
+package solutions.s4y.waytoday.sdk;
+
+import io.grpc.Status;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CircuitBreakerTest {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+    private final AtomicLong now = new AtomicLong();
+    private final List<CircuitBreaker.State> states = new CopyOnWriteArrayList<>();
+
+    private CircuitBreaker breaker() {
+        CircuitBreaker breaker = new CircuitBreaker(4, 0.5, 100, 1, 1000, 2, now::get);
+        breaker.stateListeners.add(states::add);
+        return breaker;
+    }
+
+    @Test
+    public void breaker_shouldOpenOnFailureRate() {
+        // Arrange
+        CircuitBreaker breaker = breaker();
+        // Act
+        breaker.onResult(Status.OK, MS);
+        breaker.onResult(Status.UNAVAILABLE, MS);
+        breaker.onResult(Status.INVALID_ARGUMENT, MS);
+        CircuitBreaker.State beforeWindowFull = breaker.getState();
+        breaker.onResult(Status.DEADLINE_EXCEEDED, MS);
+        // Assert
+        assertThat(beforeWindowFull).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+        assertThat(breaker.isCallPermitted()).isFalse();
+    }
+
+    @Test
+    public void breaker_shouldOpenOnSlowCalls() {
+        // Arrange
+        CircuitBreaker breaker = breaker();
+        // Act
+        for (int i = 0; i < 4; i++) {
+            breaker.onResult(Status.OK, 200 * MS);
+        }
+        // Assert
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void breaker_shouldProbeAndCloseAfterOpenPeriod() {
+        // Arrange
+        CircuitBreaker breaker = breaker();
+        for (int i = 0; i < 4; i++) {
+            breaker.onResult(Status.UNAVAILABLE, MS);
+        }
+        // Act
+        now.addAndGet(1000 * MS);
+        boolean first = breaker.tryAcquire();
+        boolean second = breaker.tryAcquire();
+        boolean third = breaker.tryAcquire();
+        breaker.onResult(Status.OK, MS);
+        breaker.onResult(Status.OK, MS);
+        // Assert
+        assertThat(first).isTrue();
+        assertThat(second).isTrue();
+        assertThat(third).isFalse();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(states).containsExactly(CircuitBreaker.State.OPEN, CircuitBreaker.State.HALF_OPEN, CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void breaker_shouldReopenOnFailedProbe() {
+        // Arrange
+        CircuitBreaker breaker = breaker();
+        for (int i = 0; i < 4; i++) {
+            breaker.onResult(Status.UNAVAILABLE, MS);
+        }
+        now.addAndGet(1000 * MS);
+        // Act
+        breaker.tryAcquire();
+        breaker.onResult(Status.UNAVAILABLE, MS);
+        // Assert
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+    }
+}
@@ -0,0 +1,329 @@
+package solutions.s4y.waytoday.sdk;
+
+import io.grpc.Grpc;
+import io.grpc.InsecureServerCredentials;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import solutions.s4y.waytoday.grpc.LocationOuterClass;
+import solutions.s4y.waytoday.grpc.TrackerGrpc;
+import solutions.s4y.waytoday.grpc.TrackerOuterClass;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The stand-in of the WayToday tracker server for the tests and the benchmarks
+ * Keeps the locations in memory, checks the WSSE header of every call and injects
+ * the latency with jitter, the errors and the cap of the locations per second.
+ * Runs over the in-process transport or over Netty on a local port.
+ */
+final class FakeTrackerServer implements AutoCloseable {
+    static final String PRINCIPAL = "principal";
+    static final String SECRET = "secret";
+    private static final Metadata.Key<String> WSSE_KEY = Metadata.Key.of("wsse", Metadata.ASCII_STRING_MARSHALLER);
+    private static final Pattern WSSE_FIELD = Pattern.compile("(\\w+)=\"([^\"]*)\"");
+
+    private final Map<String, Deque<LocationOuterClass.Location>> locations = new ConcurrentHashMap<>();
+    private final Set<String> trackerIds = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final AtomicInteger nextTrackerId = new AtomicInteger(100);
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final ScheduledExecutorService delayed = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "fake-tracker-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Server server;
+    @Nullable
+    private final String name;
+
+    private volatile long latencyMs = 0;
+    private volatile long jitterMs = 0;
+    private volatile double errorRate = 0;
+    private volatile Status error = Status.UNAVAILABLE;
+    private volatile long maxLocationsPerSecond = 0;
+    // the token bucket of the throughput cap
+    private long tokens;
+    private long refilledAt = System.nanoTime();
+
+    private FakeTrackerServer(@Nullable String name, int port) throws IOException {
+        this.name = name;
+        ServerBuilder<?> builder = name == null
+                ? Grpc.newServerBuilderForPort(port, InsecureServerCredentials.create())
+                : InProcessServerBuilder.forName(name).directExecutor();
+        server = builder
+                .addService(ServerInterceptors.intercept(new Service(), new WsseInterceptor()))
+                .build()
+                .start();
+    }
+
+    static FakeTrackerServer inProcess() throws IOException {
+        return new FakeTrackerServer(InProcessServerBuilder.generateName(), 0);
+    }
+
+    /**
+     * @param port 0 - any free port
+     */
+    static FakeTrackerServer netty(int port) throws IOException {
+        return new FakeTrackerServer(null, port);
+    }
+
+    int getPort() {
+        return server.getPort();
+    }
+
+    /**
+     * @return the client with the valid credentials connected to the server
+     */
+    GrpcClient client() {
+        return client(PRINCIPAL, SECRET, 1);
+    }
+
+    GrpcClient client(@Nonnull String principal, @Nonnull String secret, int channels) {
+        GrpcChannelPool pool = name == null
+                ? GrpcChannelPool.forAddress("localhost", getPort(), false, channels, 0, 0)
+                : new GrpcChannelPool(channels, () -> InProcessChannelBuilder.forName(name).directExecutor().build());
+        return new GrpcClient(principal, secret, "fake", pool);
+    }
+
+    /**
+     * Answers every call after latencyMs plus up to jitterMs at random
+     */
+    FakeTrackerServer latency(long latencyMs, long jitterMs) {
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        return this;
+    }
+
+    /**
+     * Fails that part of the calls with the status
+     */
+    FakeTrackerServer errors(double rate, @Nonnull Status status) {
+        this.errorRate = rate;
+        this.error = status;
+        return this;
+    }
+
+    /**
+     * Refuses the uploads beyond that many locations per second with RESOURCE_EXHAUSTED
+     * @param maxLocationsPerSecond 0 - no cap
+     */
+    synchronized FakeTrackerServer throughput(long maxLocationsPerSecond) {
+        this.maxLocationsPerSecond = maxLocationsPerSecond;
+        this.tokens = maxLocationsPerSecond;
+        this.refilledAt = System.nanoTime();
+        return this;
+    }
+
+    @Nonnull
+    List<LocationOuterClass.Location> getLocations(@Nonnull String tid) {
+        Deque<LocationOuterClass.Location> stored = locations.get(tid);
+        return stored == null ? Collections.emptyList() : new ArrayList<>(stored);
+    }
+
+    int getLocationsCount() {
+        int count = 0;
+        for (Deque<LocationOuterClass.Location> stored : locations.values()) {
+            count += stored.size();
+        }
+        return count;
+    }
+
+    long getCalls() {
+        return calls.get();
+    }
+
+    /**
+     * @return the calls failed by the injected errors, the cap or the credentials
+     */
+    long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public void close() {
+        server.shutdownNow();
+        delayed.shutdownNow();
+        // the port is released once the server has terminated
+        try {
+            server.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized boolean takeTokens(int count) {
+        long max = maxLocationsPerSecond;
+        if (max == 0)
+            return true;
+        long now = System.nanoTime();
+        long earned = (now - refilledAt) * max / TimeUnit.SECONDS.toNanos(1);
+        if (earned > 0) {
+            tokens = Math.min(max, tokens + earned);
+            // keep the fraction of a token for the next call
+            refilledAt = tokens == max ? now : refilledAt + earned * TimeUnit.SECONDS.toNanos(1) / max;
+        }
+        if (tokens < count)
+            return false;
+        tokens -= count;
+        return true;
+    }
+
+    /**
+     * Answers after the injected latency, or fails the call with the injected error
+     */
+    private <T> void respond(StreamObserver<T> observer, Consumer<StreamObserver<T>> answer) {
+        calls.incrementAndGet();
+        Runnable response = () -> {
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                rejected.incrementAndGet();
+                observer.onError(error.asRuntimeException());
+                return;
+            }
+            answer.accept(observer);
+        };
+        long delayMs = latencyMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0);
+        if (delayMs > 0)
+            delayed.schedule(response, delayMs, TimeUnit.MILLISECONDS);
+        else
+            response.run();
+    }
+
+    private static <T> void reply(StreamObserver<T> observer, T response) {
+        observer.onNext(response);
+        observer.onCompleted();
+    }
+
+    private final class Service extends TrackerGrpc.TrackerImplBase {
+        @Override
+        public void ping(TrackerOuterClass.PingRequest request, StreamObserver<TrackerOuterClass.PongResponse> responseObserver) {
+            respond(responseObserver, observer -> reply(observer,
+                    TrackerOuterClass.PongResponse.newBuilder().setPayload(request.getPayload()).build()));
+        }
+
+        @Override
+        public void generateTrackerID(TrackerOuterClass.GenerateTrackerIDRequest request,
+                                      StreamObserver<TrackerOuterClass.GenerateTrackerIDResponse> responseObserver) {
+            respond(responseObserver, observer -> {
+                String tid = String.valueOf(nextTrackerId.getAndIncrement());
+                trackerIds.add(tid);
+                reply(observer, TrackerOuterClass.GenerateTrackerIDResponse.newBuilder().setTid(tid).build());
+            });
+        }
+
+        @Override
+        public void testTrackerID(TrackerOuterClass.TestTrackerIDRequest request,
+                                  StreamObserver<TrackerOuterClass.TestTrackerIDResponse> responseObserver) {
+            respond(responseObserver, observer -> reply(observer,
+                    TrackerOuterClass.TestTrackerIDResponse.newBuilder().setOk(trackerIds.contains(request.getTid())).build()));
+        }
+
+        @Override
+        public void freeTrackerID(TrackerOuterClass.FreeTrackerIDRequest request,
+                                  StreamObserver<TrackerOuterClass.FreeTrackerIDResponse> responseObserver) {
+            respond(responseObserver, observer -> reply(observer,
+                    TrackerOuterClass.FreeTrackerIDResponse.newBuilder().setOk(trackerIds.remove(request.getTid())).build()));
+        }
+
+        @Override
+        public void getLocations(TrackerOuterClass.GetLocationsRequest request,
+                                 StreamObserver<TrackerOuterClass.GetLocationsResponse> responseObserver) {
+            respond(responseObserver, observer -> {
+                List<LocationOuterClass.Location> stored = FakeTrackerServer.this.getLocations(request.getTid());
+                int from = request.getLimit() == 0 ? 0 : Math.max(0, stored.size() - request.getLimit());
+                reply(observer, TrackerOuterClass.GetLocationsResponse.newBuilder()
+                        .addAllItems(stored.subList(from, stored.size()))
+                        .build());
+            });
+        }
+
+        @Override
+        public void addLocations(TrackerOuterClass.AddLocationsRequest request,
+                                 StreamObserver<TrackerOuterClass.AddLocationResponse> responseObserver) {
+            respond(responseObserver, observer -> {
+                if (!takeTokens(request.getLocationsCount())) {
+                    rejected.incrementAndGet();
+                    observer.onError(Status.RESOURCE_EXHAUSTED.withDescription("Throughput cap").asRuntimeException());
+                    return;
+                }
+                for (LocationOuterClass.Location location : request.getLocationsList()) {
+                    // the coalesced uploads carry the tracker of every location
+                    String tid = location.getTid().isEmpty() ? request.getTid() : location.getTid();
+                    locations.computeIfAbsent(tid, key -> new ConcurrentLinkedDeque<>()).add(location);
+                }
+                reply(observer, TrackerOuterClass.AddLocationResponse.newBuilder().setOk(true).build());
+            });
+        }
+    }
+
+    /**
+     * Accepts the calls with the digest of PRINCIPAL/SECRET only
+     */
+    private final class WsseInterceptor implements ServerInterceptor {
+        @Override
+        public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                     ServerCallHandler<ReqT, RespT> next) {
+            String token = headers.get(WSSE_KEY);
+            if (token == null || !isValid(token)) {
+                rejected.incrementAndGet();
+                call.close(Status.UNAUTHENTICATED.withDescription("Invalid WSSE token"), new Metadata());
+                return new ServerCall.Listener<ReqT>() {
+                };
+            }
+            return next.startCall(call, headers);
+        }
+
+        private boolean isValid(@Nonnull String token) {
+            Map<String, String> fields = new ConcurrentHashMap<>();
+            Matcher matcher = WSSE_FIELD.matcher(token);
+            while (matcher.find()) {
+                fields.put(matcher.group(1), matcher.group(2));
+            }
+            String nonce = fields.get("nonce");
+            String created = fields.get("Created");
+            String digest = fields.get("PasswordDigest");
+            if (!PRINCIPAL.equals(fields.get("Username")) || nonce == null || created == null || digest == null)
+                return false;
+            try {
+                MessageDigest sha1 = MessageDigest.getInstance("SHA");
+                sha1.update(nonce.getBytes(StandardCharsets.UTF_8));
+                sha1.update(created.getBytes(StandardCharsets.UTF_8));
+                sha1.update(SECRET.getBytes(StandardCharsets.UTF_8));
+                return digest.equals(Base64.getEncoder().encodeToString(sha1.digest()));
+            } catch (NoSuchAlgorithmException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package solutions.s4y.waytoday.sdk;
+
+import io.grpc.Status;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FakeTrackerServerTest {
+    private static List<Location> locations(int count) {
+        List<Location> locations = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            locations.add(new Location(String.valueOf(i), "", i, 0, 0, 0, i, 0, false, "", 0, 0, ""));
+        }
+        return locations;
+    }
+
+    @Test
+    public void netty_shouldStoreLocationsOfValidClient() throws Exception {
+        // Arrange
+        try (FakeTrackerServer server = FakeTrackerServer.netty(0);
+             GrpcClient client = server.client()) {
+            String tid = client.generateTrackerId(null);
+            // Act
+            boolean ok = client.addLocations(tid, locations(3));
+            // Assert
+            assertThat(ok).isTrue();
+            assertThat(client.testTrackerId(tid)).isTrue();
+            assertThat(server.getLocations(tid)).hasSize(3);
+            assertThat(client.getLocationBatch(tid, 2).size()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void inProcess_shouldRejectInvalidCredentials() throws Exception {
+        // Arrange
+        try (FakeTrackerServer server = FakeTrackerServer.inProcess();
+             GrpcClient client = server.client(FakeTrackerServer.PRINCIPAL, "wrong", 1)) {
+            // Act & Assert
+            assertThatThrownBy(() -> client.ping("payload")).hasMessageContaining("UNAUTHENTICATED");
+            assertThat(server.getRejected()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void inProcess_shouldInjectErrorsAndCapThroughput() throws Exception {
+        // Arrange
+        try (FakeTrackerServer server = FakeTrackerServer.inProcess();
+             GrpcClient client = server.client()) {
+            server.errors(1, Status.UNAVAILABLE);
+            // Act & Assert
+            assertThatThrownBy(() -> client.ping("payload")).hasMessageContaining("UNAVAILABLE");
+            server.errors(0, Status.UNAVAILABLE).throughput(5);
+            assertThat(client.addLocations("tid", locations(5))).isTrue();
+            assertThatThrownBy(() -> client.addLocations("tid", locations(5))).hasMessageContaining("RESOURCE_EXHAUSTED");
+            assertThat(server.getLocationsCount()).isEqualTo(5);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package solutions.s4y.waytoday.sdk;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static solutions.s4y.waytoday.sdk.WayTodayClientTest.Locations.getLocation;
+import static solutions.s4y.waytoday.sdk.WayTodayClientTest.Locations.peekIds;
+
+public class FileLocationsQueueTest {
+    @TempDir
+    File directory;
+
+    private File[] segments() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".log"));
+        return files == null ? new File[0] : files;
+    }
+
+    @Test
+    public void queue_shouldRoundTripLocations() throws IOException {
+        // Arrange
+        try (FileLocationsQueue queue = new FileLocationsQueue(directory)) {
+            // Act
+            queue.offer(getLocation(1));
+            List<Location> locations = new ArrayList<>();
+            queue.peek(locations, 10);
+            // Assert
+            Location location = locations.get(0);
+            assertThat(location.id).isEqualTo("1");
+            assertThat(location.tid).isEqualTo("tid");
+            assertThat(location.lat).isEqualTo(1);
+            assertThat(location.lon).isEqualTo(-1);
+            assertThat(location.ts).isEqualTo(1001);
+            assertThat(location.batp).isEqualTo(50);
+            assertThat(location.bats).isFalse();
+            assertThat(location.provider).isEqualTo("provider");
+            assertThat(location.sid).isEqualTo("sid");
+        }
+    }
+
+    @Test
+    public void queue_shouldSurviveReopenWithoutAcknowledged() throws IOException {
+        // Arrange
+        try (FileLocationsQueue queue = new FileLocationsQueue(directory)) {
+            for (int i = 0; i < 5; i++) {
+                queue.offer(getLocation(i));
+            }
+            List<Location> pack = new ArrayList<>();
+            long first = queue.peek(pack, 2);
+            queue.removeUpTo(first + pack.size());
+        }
+        // Act
+        try (FileLocationsQueue queue = new FileLocationsQueue(directory)) {
+            // Assert
+            assertThat(queue.size()).isEqualTo(3);
+            assertThat(peekIds(queue)).containsExactly("2", "3", "4");
+            queue.offer(getLocation(5));
+            assertThat(peekIds(queue)).containsExactly("2", "3", "4", "5");
+        }
+    }
+
+    @Test
+    public void queue_shouldTruncateTornRecordOnRecovery() throws IOException {
+        // Arrange
+        try (FileLocationsQueue queue = new FileLocationsQueue(directory)) {
+            queue.offer(getLocation(1));
+            queue.offer(getLocation(2));
+        }
+        File segment = segments()[0];
+        long valid = segment.length();
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(valid);
+            // a record header promising more bytes than were written
+            file.writeInt(100);
+            file.writeInt(12345);
+            file.write(new byte[10]);
+        }
+        // Act
+        try (FileLocationsQueue queue = new FileLocationsQueue(directory)) {
+            // Assert
+            assertThat(peekIds(queue)).containsExactly("1", "2");
+            assertThat(segment.length()).isEqualTo(valid);
+            queue.offer(getLocation(3));
+            assertThat(peekIds(queue)).containsExactly("1", "2", "3");
+        }
+    }
+
+    @Test
+    public void queue_shouldRotateAndDeleteAcknowledgedSegments() throws IOException {
+        // Arrange
+        try (FileLocationsQueue queue = new FileLocationsQueue(directory, 1000, 256, 0)) {
+            for (int i = 0; i < 20; i++) {
+                queue.offer(getLocation(i));
+            }
+            int rotated = segments().length;
+            // Act
+            List<Location> pack = new ArrayList<>();
+            long first = queue.peek(pack, 18);
+            queue.removeUpTo(first + pack.size());
+            // Assert
+            assertThat(rotated).isGreaterThan(2);
+            assertThat(segments().length).isLessThan(rotated);
+            assertThat(peekIds(queue)).containsExactly("18", "19");
+        }
+    }
+
+    @Test
+    public void queue_shouldEvictOldestBeyondMaxLocations() throws IOException {
+        // Arrange
+        try (FileLocationsQueue queue = new FileLocationsQueue(directory, 3, 256, 0)) {
+            // Act
+            int evicted = 0;
+            for (int i = 0; i < 10; i++) {
+                evicted += queue.offer(getLocation(i));
+            }
+            // Assert
+            assertThat(evicted).isEqualTo(7);
+            assertThat(queue.dropped()).isEqualTo(7);
+            assertThat(peekIds(queue)).containsExactly("7", "8", "9");
+        }
+    }
+
+    @Test
+    public void offer_shouldRejectOversizeRecord() throws IOException {
+        // Arrange
+        char[] huge = new char[70_000];
+        Arrays.fill(huge, 'x');
+        Location oversize = new Location("", "tid", 0, 0, 0, 0, 0, 0, false, new String(huge), 0, 0, "");
+        try (FileLocationsQueue queue = new FileLocationsQueue(directory)) {
+            queue.offer(getLocation(1));
+            // Act
+            // Assert
+            assertThatThrownBy(() -> queue.offer(oversize)).isInstanceOf(IllegalArgumentException.class);
+            queue.offer(getLocation(2));
+            assertThat(peekIds(queue)).containsExactly("1", "2");
+        }
+        try (FileLocationsQueue queue = new FileLocationsQueue(directory)) {
+            assertThat(peekIds(queue)).containsExactly("1", "2");
+        }
+    }
+
+    @Test
+    public void queue_shouldSyncBurstWithoutFurtherOperations() throws Exception {
+        // Arrange
+        FileLocationsQueue crashed = new FileLocationsQueue(directory, 1000, 1024 * 1024, 50);
+        try {
+            // Act
+            for (int i = 0; i < 3; i++) {
+                crashed.offer(getLocation(i));
+            }
+            long deadline = System.currentTimeMillis() + 2000;
+            while (!crashed.isSynced() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            // Assert
+            assertThat(crashed.isSynced()).isTrue();
+            // reopened as after a crash, the first queue is never closed before
+            try (FileLocationsQueue recovered = new FileLocationsQueue(directory)) {
+                assertThat(peekIds(recovered)).containsExactly("0", "1", "2");
+            }
+        } finally {
+            crashed.close();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package solutions.s4y.waytoday.sdk;
+
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class GrpcChannelPoolTest {
+    private final List<ManagedChannel> created = new ArrayList<>();
+
+    private GrpcChannelPool pool(int size) {
+        return new GrpcChannelPool(size, () -> {
+            ManagedChannel channel = mock(ManagedChannel.class);
+            created.add(channel);
+            return channel;
+        });
+    }
+
+    @Test
+    public void get_shouldReuseTheSameChannel() {
+        // Arrange
+        GrpcChannelPool pool = pool(1);
+        // Act
+        ManagedChannel first = pool.get();
+        ManagedChannel second = pool.get();
+        // Assert
+        assertThat(second).isSameAs(first);
+        assertThat(created).hasSize(1);
+    }
+
+    @Test
+    public void get_shouldRoundRobinChannels() {
+        // Arrange
+        GrpcChannelPool pool = pool(2);
+        // Act
+        ManagedChannel first = pool.get();
+        ManagedChannel second = pool.get();
+        ManagedChannel third = pool.get();
+        // Assert
+        assertThat(second).isNotSameAs(first);
+        assertThat(third).isSameAs(first);
+        assertThat(created).hasSize(2);
+    }
+
+    @Test
+    public void get_shouldReplaceShutDownChannel() {
+        // Arrange
+        GrpcChannelPool pool = pool(1);
+        ManagedChannel first = pool.get();
+        when(first.isShutdown()).thenReturn(true);
+        // Act
+        ManagedChannel second = pool.get();
+        // Assert
+        assertThat(second).isNotSameAs(first);
+        assertThat(created).hasSize(2);
+    }
+
+    @Test
+    public void close_shouldShutdownChannelsAndRejectNewCalls() {
+        // Arrange
+        GrpcChannelPool pool = pool(2);
+        pool.get();
+        pool.get();
+        // Act
+        pool.close();
+        // Assert
+        created.forEach(channel -> verify(channel).shutdown());
+        assertThatThrownBy(pool::get).isInstanceOf(IllegalStateException.class);
+    }
+
+    /**
+     * Feeds the states to the watcher of a mocked channel one by one
+     */
+    private long reconnects(ConnectivityState... states) {
+        AtomicReference<ConnectivityState> state = new AtomicReference<>(ConnectivityState.IDLE);
+        AtomicReference<Runnable> watcher = new AtomicReference<>();
+        GrpcChannelPool pool = new GrpcChannelPool(1, () -> {
+            ManagedChannel channel = mock(ManagedChannel.class);
+            when(channel.getState(false)).thenAnswer(invocation -> state.get());
+            doAnswer(invocation -> {
+                watcher.set(invocation.getArgument(1));
+                return null;
+            }).when(channel).notifyWhenStateChanged(any(), any());
+            return channel;
+        });
+        pool.get();
+        for (ConnectivityState next : states) {
+            state.set(next);
+            watcher.get().run();
+        }
+        return pool.reconnects.sum();
+    }
+
+    @Test
+    public void watch_shouldNotCountIdleCycle() {
+        // Act
+        long reconnects = reconnects(ConnectivityState.CONNECTING, ConnectivityState.READY, ConnectivityState.IDLE,
+                ConnectivityState.CONNECTING, ConnectivityState.READY);
+        // Assert
+        assertThat(reconnects).isZero();
+    }
+
+    @Test
+    public void watch_shouldCountReadyAfterTransientFailure() {
+        // Act
+        long reconnects = reconnects(ConnectivityState.CONNECTING, ConnectivityState.READY, ConnectivityState.IDLE,
+                ConnectivityState.CONNECTING, ConnectivityState.TRANSIENT_FAILURE, ConnectivityState.CONNECTING,
+                ConnectivityState.READY);
+        // Assert
+        assertThat(reconnects).isEqualTo(1);
+    }
+
+    @Test
+    public void watch_shouldCountReadyAfterDropToConnecting() {
+        // Act
+        long reconnects = reconnects(ConnectivityState.CONNECTING, ConnectivityState.READY,
+                ConnectivityState.CONNECTING, ConnectivityState.READY);
+        // Assert
+        assertThat(reconnects).isEqualTo(1);
+    }
+
+    @Test
+    public void watch_shouldNotCountFirstConnection() {
+        // Act
+        long reconnects = reconnects(ConnectivityState.CONNECTING, ConnectivityState.TRANSIENT_FAILURE,
+                ConnectivityState.CONNECTING, ConnectivityState.READY);
+        // Assert
+        assertThat(reconnects).isZero();
+    }
+}
@@ -0,0 +1,297 @@
+package solutions.s4y.waytoday.sdk;
+
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import solutions.s4y.waytoday.grpc.TrackerGrpc;
+import solutions.s4y.waytoday.grpc.TrackerOuterClass;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class GrpcClientInProcessTest {
+    private final List<TrackerOuterClass.AddLocationsRequest> received = new CopyOnWriteArrayList<>();
+    private final CountDownLatch pingCancelled = new CountDownLatch(1);
+    private volatile Status failWith = null;
+    // the calls failing with failWith before the server recovers
+    private final AtomicInteger failures = new AtomicInteger(Integer.MAX_VALUE);
+    // the first generateTrackerID call never answers
+    private volatile boolean stallFirstGenerate = false;
+    private final AtomicInteger generateCalls = new AtomicInteger();
+    private final CountDownLatch generateCancelled = new CountDownLatch(1);
+    private Server server;
+    private GrpcClient client;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name)
+                .directExecutor()
+                .addService(new TrackerGrpc.TrackerImplBase() {
+                    @Override
+                    public void addLocations(TrackerOuterClass.AddLocationsRequest request,
+                                             StreamObserver<TrackerOuterClass.AddLocationResponse> responseObserver) {
+                        if (failWith != null && failures.getAndDecrement() > 0) {
+                            responseObserver.onError(failWith.asRuntimeException());
+                            return;
+                        }
+                        received.add(request);
+                        responseObserver.onNext(TrackerOuterClass.AddLocationResponse.newBuilder().setOk(true).build());
+                        responseObserver.onCompleted();
+                    }
+
+                    @Override
+                    public void generateTrackerID(TrackerOuterClass.GenerateTrackerIDRequest request,
+                                                  StreamObserver<TrackerOuterClass.GenerateTrackerIDResponse> responseObserver) {
+                        if (generateCalls.getAndIncrement() == 0 && stallFirstGenerate) {
+                            ((ServerCallStreamObserver<TrackerOuterClass.GenerateTrackerIDResponse>) responseObserver)
+                                    .setOnCancelHandler(generateCancelled::countDown);
+                            return;
+                        }
+                        responseObserver.onNext(TrackerOuterClass.GenerateTrackerIDResponse.newBuilder().setTid("42").build());
+                        responseObserver.onCompleted();
+                    }
+
+                    @Override
+                    public void ping(TrackerOuterClass.PingRequest request,
+                                     StreamObserver<TrackerOuterClass.PongResponse> responseObserver) {
+                        // never answers, only the cancellation ends the call
+                        ((ServerCallStreamObserver<TrackerOuterClass.PongResponse>) responseObserver)
+                                .setOnCancelHandler(pingCancelled::countDown);
+                    }
+
+                    @Override
+                    public void getLocations(TrackerOuterClass.GetLocationsRequest request,
+                                             StreamObserver<TrackerOuterClass.GetLocationsResponse> responseObserver) {
+                        TrackerOuterClass.GetLocationsResponse.Builder response = TrackerOuterClass.GetLocationsResponse.newBuilder();
+                        received.forEach(r -> response.addAllItems(r.getLocationsList()));
+                        responseObserver.onNext(response.build());
+                        responseObserver.onCompleted();
+                    }
+                })
+                .build()
+                .start();
+        client = new GrpcClient("principal", "secret", "test-provider",
+                new GrpcChannelPool(1, () -> InProcessChannelBuilder.forName(name).directExecutor().build()));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        client.close();
+        server.shutdownNow();
+    }
+
+    private static List<Location> locations(int count) {
+        List<Location> locations = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            locations.add(new Location(String.valueOf(i), "", i, 0, 0, 0, i, 0, false, "", 0, 0, ""));
+        }
+        return locations;
+    }
+
+    @Test
+    public void addLocationsAsync_shouldCompleteWithAcknowledgement() throws Exception {
+        // Act
+        Boolean ok = client.addLocationsAsync("tid", locations(3)).get(1, TimeUnit.SECONDS);
+        // Assert
+        assertThat(ok).isTrue();
+        assertThat(received).hasSize(1);
+        assertThat(received.get(0).getTid()).isEqualTo("tid");
+        assertThat(received.get(0).getLocationsCount()).isEqualTo(3);
+        assertThat(received.get(0).getLocations(0).getProvider()).isEqualTo("test-provider");
+    }
+
+    @Test
+    public void addLocationsAsync_shouldCompleteExceptionallyOnError() {
+        // Arrange
+        failWith = Status.UNAVAILABLE;
+        // Act & Assert
+        assertThatThrownBy(() -> client.addLocationsAsync("tid", locations(1)).get(1, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasMessageContaining("UNAVAILABLE");
+    }
+
+    @Test
+    public void addLocations_shouldReuseTheChannel() throws Exception {
+        // Act
+        client.addLocations("tid", locations(1));
+        client.addLocations("tid", locations(2));
+        // Assert
+        assertThat(received).hasSize(2);
+    }
+
+    @Test
+    public void locationBatch_shouldRoundTripThroughServer() throws Exception {
+        // Arrange
+        LocationBatch batch = new LocationBatch();
+        locations(3).forEach(batch::add);
+        // Act
+        client.addLocationBatch("tid", batch);
+        LocationBatch fetched = client.getLocationBatch("tid", 10);
+        // Assert
+        assertThat(fetched.size()).isEqualTo(3);
+        LocationBatch.Cursor cursor = fetched.cursor();
+        for (int i = 0; i < 3; i++) {
+            assertThat(cursor.next()).isTrue();
+            assertThat(cursor.id()).isEqualTo(String.valueOf(i));
+            assertThat(cursor.lat()).isEqualTo(i);
+            assertThat(cursor.provider()).isEqualTo("test-provider");
+        }
+        assertThat(cursor.next()).isFalse();
+    }
+
+    @Test
+    public void addLocationsOfTrackers_shouldTagEveryLocation() throws Exception {
+        // Arrange
+        Map<String, List<Location>> byTid = new LinkedHashMap<>();
+        byTid.put("a", locations(1));
+        byTid.put("b", locations(2));
+        // Act
+        client.addLocationsOfTrackers(byTid);
+        // Assert
+        assertThat(received).hasSize(1);
+        assertThat(received.get(0).getTid()).isEqualTo("a");
+        assertThat(received.get(0).getLocationsList())
+                .extracting(location -> location.getTid())
+                .containsExactly("a", "b", "b");
+    }
+
+    @Test
+    public void generateTrackerIdAsync_shouldCompleteOnExecutor() throws Exception {
+        // Arrange
+        AtomicInteger executed = new AtomicInteger();
+        Executor executor = command -> {
+            executed.incrementAndGet();
+            command.run();
+        };
+        // Act
+        String tid = client.generateTrackerIdAsync(null, executor).get(1, TimeUnit.SECONDS);
+        // Assert
+        assertThat(tid).isEqualTo("42");
+        assertThat(executed.get()).isPositive();
+    }
+
+    @Test
+    public void pingAsync_shouldCancelTheCall() throws Exception {
+        // Arrange
+        CompletableFuture<String> pong = client.pingAsync("payload", null);
+        // Act
+        pong.cancel(true);
+        // Assert
+        assertThat(pingCancelled.await(1, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void uploadLocations_shouldRetryUnavailableServer() {
+        // Arrange
+        failWith = Status.UNAVAILABLE;
+        failures.set(2);
+        IPersistedState state = mock(IPersistedState.class);
+        when(state.getTrackerId()).thenReturn("tid");
+        IErrorsListener errorsListener = mock(IErrorsListener.class);
+        WayTodayClient wayTodayClient = new WayTodayClient(state, client);
+        wayTodayClient.addErrorsListener(errorsListener);
+        wayTodayClient.setRetryPolicy(new RetryPolicy(3, 1, 10));
+        locations(3).forEach(wayTodayClient::enqueueLocationToUpload);
+        // Act
+        wayTodayClient.uploadLocations();
+        // Assert
+        assertThat(received).hasSize(1);
+        assertThat(wayTodayClient.locationsQueue.isEmpty()).isTrue();
+        assertThat(wayTodayClient.getUploadingLocationsStatus()).isEqualTo(UploadingLocationsStatus.EMPTY);
+        verify(errorsListener, never()).onError(any());
+    }
+
+    @Test
+    public void uploadLocations_shouldNotRetryInvalidArgument() {
+        // Arrange
+        failWith = Status.INVALID_ARGUMENT;
+        IPersistedState state = mock(IPersistedState.class);
+        when(state.getTrackerId()).thenReturn("tid");
+        IErrorsListener errorsListener = mock(IErrorsListener.class);
+        WayTodayClient wayTodayClient = new WayTodayClient(state, client);
+        wayTodayClient.addErrorsListener(errorsListener);
+        RetryPolicy retryPolicy = new RetryPolicy(3, 1, 10);
+        wayTodayClient.setRetryPolicy(retryPolicy);
+        locations(3).forEach(wayTodayClient::enqueueLocationToUpload);
+        // Act
+        wayTodayClient.uploadLocations();
+        // Assert
+        assertThat(failures.get()).isEqualTo(Integer.MAX_VALUE - 1);
+        assertThat(retryPolicy.getTokens()).isEqualTo(10);
+        assertThat(wayTodayClient.locationsQueue.size()).isEqualTo(3);
+        assertThat(wayTodayClient.getUploadingLocationsStatus()).isEqualTo(UploadingLocationsStatus.ERROR);
+        verify(errorsListener).onError(any());
+    }
+
+    @Test
+    public void uploadLocations_shouldFailFastWhileCircuitIsOpen() {
+        // Arrange
+        failWith = Status.UNAVAILABLE;
+        IPersistedState state = mock(IPersistedState.class);
+        when(state.getTrackerId()).thenReturn("tid");
+        IUploadingLocationsStatusChangeListener statusListener = mock(IUploadingLocationsStatusChangeListener.class);
+        WayTodayClient wayTodayClient = new WayTodayClient(state, client);
+        wayTodayClient.addUploadingLocationsStatusChangeListener(statusListener);
+        wayTodayClient.setCircuitBreaker(new CircuitBreaker(2, 0.5, 10_000, 1, 60_000, 1));
+        locations(3).forEach(wayTodayClient::enqueueLocationToUpload);
+        wayTodayClient.uploadLocations();
+        wayTodayClient.uploadLocations();
+        // Act
+        wayTodayClient.uploadLocations();
+        // Assert
+        assertThat(failures.get()).isEqualTo(Integer.MAX_VALUE - 2);
+        assertThat(wayTodayClient.locationsQueue.size()).isEqualTo(3);
+        assertThat(wayTodayClient.getUploadingLocationsStatus()).isEqualTo(UploadingLocationsStatus.ERROR);
+        verify(statusListener).onCircuitBreakerStateChange(CircuitBreaker.State.OPEN);
+        assertThatThrownBy(() -> client.ping("payload")).hasMessageContaining("circuit breaker is open");
+    }
+
+    @Test
+    public void pingAsync_shouldFailOnDeadline() throws Exception {
+        // Arrange
+        client.setDeadlineMs(GrpcOperation.PING, 50);
+        // Act & Assert
+        assertThatThrownBy(() -> client.pingAsync("payload", null).get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasMessageContaining("DEADLINE_EXCEEDED");
+        assertThat(client.getLatency(GrpcOperation.PING).getCount()).isEqualTo(1);
+        assertThat(client.getLatency(GrpcOperation.PING).getMaxMicros()).isGreaterThanOrEqualTo(30_000);
+    }
+
+    @Test
+    public void generateTrackerId_shouldTakeHedgedResponseAndCancelSlowAttempt() throws Exception {
+        // Arrange
+        stallFirstGenerate = true;
+        client.setHedgingPolicy(new HedgingPolicy(20, 1));
+        // Act
+        String tid = client.generateTrackerId(null);
+        // Assert
+        assertThat(tid).isEqualTo("42");
+        assertThat(generateCalls.get()).isEqualTo(2);
+        assertThat(generateCancelled.await(1, TimeUnit.SECONDS)).isTrue();
+    }
+}
@@ -0,0 +1,39 @@
+package solutions.s4y.waytoday.sdk;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HedgingPolicyTest {
+    @Test
+    public void tryHedge_shouldKeepHedgesWithinRatio() {
+        // Arrange
+        HedgingPolicy policy = new HedgingPolicy(10, 0.5);
+        // Act
+        policy.onCall();
+        boolean first = policy.tryHedge();
+        policy.onCall();
+        boolean second = policy.tryHedge();
+        boolean third = policy.tryHedge();
+        // Assert
+        assertThat(first).isFalse();
+        assertThat(second).isTrue();
+        assertThat(third).isFalse();
+    }
+
+    @Test
+    public void delay_shouldFollowPercentileOnceKnown() {
+        // Arrange
+        HedgingPolicy policy = new HedgingPolicy(500, 95, 0.1);
+        LatencyHistogram latency = new LatencyHistogram();
+        // Act
+        long before = policy.delayMs(latency);
+        for (int i = 0; i < HedgingPolicy.MIN_CALLS; i++) {
+            latency.record(8_000_000L);
+        }
+        long after = policy.delayMs(latency);
+        // Assert
+        assertThat(before).isEqualTo(500);
+        assertThat(after).isEqualTo(8);
+    }
+}
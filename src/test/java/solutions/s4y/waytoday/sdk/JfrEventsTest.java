@@ -0,0 +1,70 @@
+package solutions.s4y.waytoday.sdk;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JfrEventsTest {
+    private static final Location LOCATION = new Location("tid", 1, 2, 3, 4, 5, 6, false, "", 7, 8);
+
+    @Test
+    public void upload_shouldEmitEventsWhileRecording(@TempDir Path dir) throws Exception {
+        // Arrange
+        assertThat(JfrEvents.isSupported()).isTrue();
+        Path file = dir.resolve("waytoday.jfr");
+        try (FakeTrackerServer server = FakeTrackerServer.inProcess();
+             WayTodayClient client = new WayTodayClient(new IPersistedState() {
+                 @Override
+                 public String getTrackerId() {
+                     return "tid";
+                 }
+
+                 @Override
+                 public void setTrackerId(String trackerId) {
+                 }
+
+                 @Override
+                 public boolean hasTrackerId() {
+                     return true;
+                 }
+             }, server.client(), new LocationsRingBuffer(2));
+             Recording recording = new Recording()) {
+            client.addUploadingLocationsStatusChangeListener(status -> {
+            });
+            recording.start();
+            // Act
+            for (int i = 0; i < 3; i++) {
+                client.enqueueLocationToUpload(LOCATION);
+            }
+            client.uploadLocations();
+            recording.stop();
+            recording.dump(file);
+        }
+        // Assert
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                .filter(e -> e.getEventType().getName().startsWith("solutions.s4y.waytoday."))
+                .collect(Collectors.toList());
+        assertThat(events).extracting(e -> e.getEventType().getName()).contains(
+                "solutions.s4y.waytoday.PackAssembled",
+                "solutions.s4y.waytoday.Rpc",
+                "solutions.s4y.waytoday.QueueOverflow",
+                "solutions.s4y.waytoday.ListenerDispatch",
+                "solutions.s4y.waytoday.ChannelCreated");
+        RecordedEvent rpc = events.stream()
+                .filter(e -> e.getEventType().getName().equals("solutions.s4y.waytoday.Rpc")).findFirst().get();
+        assertThat(rpc.getString("operation")).isEqualTo("ADD_LOCATIONS");
+        assertThat(rpc.getString("status")).isEqualTo("OK");
+        RecordedEvent pack = events.stream()
+                .filter(e -> e.getEventType().getName().equals("solutions.s4y.waytoday.PackAssembled")).findFirst().get();
+        assertThat(pack.getInt("locations")).isEqualTo(2);
+        assertThat(pack.getLong("bytes")).isGreaterThan(0);
+    }
+}
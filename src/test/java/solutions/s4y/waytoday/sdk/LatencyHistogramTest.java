@@ -0,0 +1,50 @@
+package solutions.s4y.waytoday.sdk;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LatencyHistogramTest {
+    @Test
+    public void buckets_shouldCoverEveryValueOnce() {
+        for (long micros = 0; micros < 100_000; micros++) {
+            int index = LatencyHistogram.index(micros);
+            assertThat(LatencyHistogram.highest(index)).isGreaterThanOrEqualTo(micros);
+            assertThat(index == 0 || LatencyHistogram.highest(index - 1) < micros).isTrue();
+        }
+    }
+
+    @Test
+    public void percentiles_shouldBeWithinBucketPrecision() {
+        // Arrange
+        LatencyHistogram histogram = new LatencyHistogram();
+        // Act
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1_000_000L);
+        }
+        // Assert
+        assertThat(histogram.getCount()).isEqualTo(1000);
+        assertThat(histogram.getPercentileMicros(50)).isBetween(500_000L, 562_500L);
+        assertThat(histogram.getPercentileMicros(99)).isBetween(990_000L, 1_113_750L);
+        assertThat(histogram.getMaxMicros()).isBetween(1_000_000L, 1_125_000L);
+    }
+
+    @Test
+    public void minus_shouldLeaveSharedHistogramIntact() {
+        // Arrange
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1_000_000L);
+        histogram.record(3_000_000L);
+        LatencyHistogram first = histogram.snapshot();
+        histogram.record(5_000_000L);
+        // Act
+        LatencyHistogram delta = histogram.snapshot().minus(first);
+        // Assert
+        assertThat(histogram.getCount()).isEqualTo(3);
+        assertThat(histogram.getTotalMicros()).isEqualTo(9_000);
+        assertThat(first.getCount()).isEqualTo(2);
+        assertThat(delta.getCount()).isEqualTo(1);
+        assertThat(delta.getTotalMicros()).isEqualTo(5_000);
+        assertThat(delta.getMaxMicros()).isBetween(5_000L, 5_625L);
+    }
+}
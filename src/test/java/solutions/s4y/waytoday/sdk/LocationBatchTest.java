@@ -0,0 +1,73 @@
+package solutions.s4y.waytoday.sdk;
+
+import org.junit.jupiter.api.Test;
+import solutions.s4y.waytoday.grpc.LocationOuterClass;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static solutions.s4y.waytoday.sdk.WayTodayClientTest.Locations.getLocation;
+
+public class LocationBatchTest {
+    @Test
+    public void add_shouldGrowAndKeepOrder() {
+        // Arrange
+        LocationBatch batch = new LocationBatch(1);
+        // Act
+        for (int i = 0; i < 100; i++) {
+            batch.add(getLocation(i));
+        }
+        // Assert
+        assertThat(batch.size()).isEqualTo(100);
+        LocationBatch.Cursor cursor = batch.cursor();
+        int i = 0;
+        while (cursor.next()) {
+            assertThat(cursor.id()).isEqualTo(String.valueOf(i));
+            assertThat(cursor.lat()).isEqualTo(i);
+            assertThat(cursor.lon()).isEqualTo(-i);
+            assertThat(cursor.ts()).isEqualTo(1000L + i);
+            assertThat(cursor.bats()).isEqualTo(i % 2 == 0);
+            assertThat(cursor.tid()).isSameAs(batch.get(0).tid);
+            i++;
+        }
+        assertThat(i).isEqualTo(100);
+    }
+
+    @Test
+    public void fromProto_shouldMatchLocationsFromProto() {
+        // Arrange
+        List<LocationOuterClass.Location> items = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            items.add(LocationGrpcBridge.toProto(getLocation(i), "p"));
+        }
+        LocationBatch batch = new LocationBatch();
+        // Act
+        LocationGrpcBridge.fromProto(items, batch);
+        // Assert
+        LocationBatch.Cursor cursor = batch.cursor();
+        for (LocationOuterClass.Location item : items) {
+            assertThat(cursor.next()).isTrue();
+            assertThat(LocationGrpcBridge.toProto(cursor, "p")).isEqualTo(item);
+        }
+    }
+
+    @Test
+    public void add_shouldWidenColumnsForOutOfRangeFields() {
+        // Arrange
+        LocationBatch batch = new LocationBatch(1);
+        Location narrow = new Location("1", "tid", -5, 6, 7, -8, 9, -10, false, "", 11, 12, "");
+        Location wide = new Location("2", "tid", Long.MAX_VALUE, Long.MIN_VALUE, 1L << 40, 100_000, 0, 1000,
+                true, "", -(1L << 33), 1L << 50, "");
+        // Act
+        batch.add(narrow);
+        batch.add(wide);
+        batch.add(narrow);
+        // Assert
+        assertThat(batch.size()).isEqualTo(3);
+        for (int i = 0; i < 3; i++) {
+            Location expected = i == 1 ? wide : narrow;
+            assertThat(LocationGrpcBridge.toProto(batch.get(i), "p")).isEqualTo(LocationGrpcBridge.toProto(expected, "p"));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package solutions.s4y.waytoday.sdk;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LocationCodecTest {
+    private static final Location LOCATION = new Location("tid1", 52.5162746, 13.3777041, 34.5, 270, 1700000000000L, 87, true, "gps", 12.25, 4.5);
+    private static final Location LOCATION_UNICODE = new Location("id", "трекер", -338688000, -1512093000, -100, -1, 1L, -1, false, "", 0, 0, "sid");
+
+    private static void assertSameProto(Location actual, Location expected) {
+        assertThat(LocationGrpcBridge.toProto(actual, "p")).isEqualTo(LocationGrpcBridge.toProto(expected, "p"));
+    }
+
+    @Test
+    public void fixed_shouldRoundTripAsProtobuf() {
+        // Arrange
+        LocationCodec.Dictionary dictionary = new LocationCodec.Dictionary();
+        int size = LocationCodec.fixedSize(LOCATION) + LocationCodec.fixedSize(LOCATION_UNICODE);
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        // Act
+        assertThat(LocationCodec.encodeFixed(LOCATION, buffer, dictionary)).isTrue();
+        assertThat(LocationCodec.encodeFixed(LOCATION_UNICODE, buffer, dictionary)).isTrue();
+        buffer.flip();
+        // Assert
+        assertThat(size).isEqualTo(2 * LocationCodec.FIXED_SIZE + "id".length());
+        assertThat(buffer.remaining()).isEqualTo(size);
+        assertSameProto(LocationCodec.decodeFixed(buffer, dictionary), LOCATION);
+        assertSameProto(LocationCodec.decodeFixed(buffer, dictionary), LOCATION_UNICODE);
+    }
+
+    @Test
+    public void fixed_shouldInternStrings() {
+        // Arrange
+        LocationCodec.Dictionary dictionary = new LocationCodec.Dictionary();
+        ByteBuffer buffer = ByteBuffer.allocate(10 * LocationCodec.FIXED_SIZE);
+        // Act
+        for (int i = 0; i < 10; i++) {
+            LocationCodec.encodeFixed(LOCATION, buffer, dictionary);
+        }
+        // Assert
+        assertThat(dictionary.size()).isEqualTo(3);
+    }
+
+    @Test
+    public void inline_shouldRoundTripFromProtobuf() {
+        // Arrange
+        Location fromProto = LocationGrpcBridge.fromProto(LocationGrpcBridge.toProto(LOCATION_UNICODE, "p"));
+        ByteBuffer buffer = ByteBuffer.allocate(LocationCodec.inlineSize(fromProto));
+        // Act
+        LocationCodec.encodeInline(fromProto, buffer);
+        // Assert
+        assertThat(buffer.hasRemaining()).isFalse();
+        buffer.flip();
+        assertSameProto(LocationCodec.decodeInline(buffer), fromProto);
+    }
+
+    @Test
+    public void fits_shouldRejectOutOfRangeFields() {
+        // Arrange
+        Location bear = new Location("", "", 0, 0, 0, 100_000, 0, 0, false, "", 0, 0, "");
+        Location lat = new Location("", "", Long.MAX_VALUE, 0, 0, 0, 0, 0, false, "", 0, 0, "");
+        // Act
+        // Assert
+        assertThat(LocationCodec.fits(LOCATION)).isTrue();
+        assertThat(LocationCodec.fits(bear)).isFalse();
+        assertThat(LocationCodec.fits(lat)).isFalse();
+        assertThat(LocationCodec.inlineSize(lat)).isEqualTo(-1);
+        assertThat(LocationCodec.encodeFixed(lat, ByteBuffer.allocate(LocationCodec.FIXED_SIZE), new LocationCodec.Dictionary())).isFalse();
+        assertThatThrownBy(() -> LocationCodec.encodeInline(lat, ByteBuffer.allocate(100)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void export_shouldImportSameLocations() throws IOException {
+        // Arrange
+        List<Location> locations = Arrays.asList(LOCATION, LOCATION_UNICODE, LOCATION);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // Act
+        LocationCodec.export(locations, out);
+        List<Location> imported = LocationCodec.importFrom(new ByteArrayInputStream(out.toByteArray()));
+        // Assert
+        assertThat(imported).hasSize(3);
+        for (int i = 0; i < locations.size(); i++) {
+            assertSameProto(imported.get(i), locations.get(i));
+        }
+    }
+
+    @Test
+    public void export_shouldKeepIdsOutOfDictionary() throws IOException {
+        // Arrange
+        List<Location> locations = new ArrayList<>();
+        for (int i = 0; i < LocationCodec.Dictionary.MAX_SIZE + 10; i++) {
+            locations.add(new Location("id" + i, "tid", i, -i, 0, 0, i, 0, false, "gps", 0, 0, ""));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // Act
+        LocationCodec.export(locations, out);
+        List<Location> imported = LocationCodec.importFrom(new ByteArrayInputStream(out.toByteArray()));
+        // Assert
+        assertThat(imported).hasSize(locations.size());
+        assertThat(imported.get(0).id).isEqualTo("id0");
+        assertSameProto(imported.get(locations.size() - 1), locations.get(locations.size() - 1));
+    }
+
+    @Test
+    public void fixed_shouldNotTouchDictionaryWhenItIsFull() {
+        // Arrange
+        LocationCodec.Dictionary dictionary = new LocationCodec.Dictionary(3);
+        dictionary.ref("tid1");
+        ByteBuffer buffer = ByteBuffer.allocate(LocationCodec.FIXED_SIZE);
+        // Act
+        // "tid1" fits, "gps" takes the last slot and "p" does not fit
+        boolean encoded = LocationCodec.encodeFixed(
+                new Location("", "tid1", 0, 0, 0, 0, 0, 0, false, "gps", 0, 0, "p"), buffer, dictionary);
+        // Assert
+        assertThat(encoded).isFalse();
+        assertThat(dictionary.size()).isEqualTo(2);
+        assertThat(buffer.position()).isEqualTo(0);
+    }
+
+    @Test
+    public void import_shouldRejectInvalidCount() throws IOException {
+        // Arrange
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LocationCodec.export(Arrays.asList(LOCATION, LOCATION), out);
+        byte[] bytes = out.toByteArray();
+        // the count is the int before the records
+        int countAt = bytes.length - 2 * LocationCodec.FIXED_SIZE - Integer.BYTES;
+        byte[] negative = bytes.clone();
+        ByteBuffer.wrap(negative).putInt(countAt, -1);
+        byte[] huge = bytes.clone();
+        ByteBuffer.wrap(huge).putInt(countAt, Integer.MAX_VALUE);
+        // Act
+        // Assert
+        assertThatThrownBy(() -> LocationCodec.importFrom(new ByteArrayInputStream(negative)))
+                .isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> LocationCodec.importFrom(new ByteArrayInputStream(huge)))
+                .isInstanceOf(EOFException.class);
+    }
+}
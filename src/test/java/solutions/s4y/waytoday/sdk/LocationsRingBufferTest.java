@@ -0,0 +1,139 @@
+package solutions.s4y.waytoday.sdk;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static solutions.s4y.waytoday.sdk.WayTodayClientTest.Locations.getDummyLocation;
+import static solutions.s4y.waytoday.sdk.WayTodayClientTest.Locations.ids;
+
+public class LocationsRingBufferTest {
+    @Test
+    public void ring_shouldKeepOrder() {
+        // Arrange
+        LocationsRingBuffer ring = new LocationsRingBuffer(4);
+        // Act
+        ring.offer(getDummyLocation("a"));
+        ring.offer(getDummyLocation("b"));
+        ring.offer(getDummyLocation("c"));
+        // Assert
+        assertThat(ring.size()).isEqualTo(3);
+        assertThat(ring.poll().id).isEqualTo("a");
+        assertThat(ring.poll().id).isEqualTo("b");
+        assertThat(ring.poll().id).isEqualTo("c");
+        assertThat(ring.poll()).isNull();
+        assertThat(ring.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void ring_shouldDropOldestBeyondBound() {
+        // Arrange
+        LocationsRingBuffer ring = new LocationsRingBuffer(3);
+        // Act
+        int evicted = 0;
+        for (int i = 0; i < 10; i++) {
+            evicted += ring.offer(getDummyLocation(String.valueOf(i)));
+        }
+        // Assert
+        List<Location> queued = new ArrayList<>();
+        ring.peek(queued, Integer.MAX_VALUE);
+        assertThat(ids(queued)).containsExactly("7", "8", "9");
+        assertThat(evicted).isEqualTo(7);
+        assertThat(ring.dropped()).isEqualTo(7);
+    }
+
+    @Test
+    public void ring_shouldRemoveUpToPositionDespiteEviction() {
+        // Arrange
+        LocationsRingBuffer ring = new LocationsRingBuffer(4);
+        for (int i = 0; i < 4; i++) {
+            ring.offer(getDummyLocation(String.valueOf(i)));
+        }
+        List<Location> pack = new ArrayList<>();
+        long first = ring.peek(pack, 3);
+        // Act
+        ring.offer(getDummyLocation("4"));
+        ring.removeUpTo(first + pack.size());
+        // Assert
+        List<Location> queued = new ArrayList<>();
+        ring.peek(queued, Integer.MAX_VALUE);
+        assertThat(ids(pack)).containsExactly("0", "1", "2");
+        assertThat(ids(queued)).containsExactly("3", "4");
+    }
+
+    @Test
+    public void ring_shouldDrainInBatches() {
+        // Arrange
+        LocationsRingBuffer ring = new LocationsRingBuffer(8);
+        for (int i = 0; i < 5; i++) {
+            ring.offer(getDummyLocation(String.valueOf(i)));
+        }
+        List<Location> drained = new ArrayList<>();
+        // Act
+        int first = ring.drainTo(drained, 3);
+        int second = ring.drainTo(drained, 3);
+        // Assert
+        assertThat(first).isEqualTo(3);
+        assertThat(second).isEqualTo(2);
+        assertThat(ids(drained)).containsExactly("0", "1", "2", "3", "4");
+        assertThat(ring.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void ring_shouldNotLoseLocationsOfConcurrentProducers() throws Exception {
+        // Arrange
+        final int producers = 4;
+        final int perProducer = 20_000;
+        LocationsRingBuffer ring = new LocationsRingBuffer(64);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(producers);
+        AtomicBoolean outOfOrder = new AtomicBoolean();
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final String tid = String.valueOf(p);
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perProducer; i++) {
+                        ring.offer(new Location(String.valueOf(i), tid, 0, 0, 0, 0, i, 0, false, "", 0, 0, ""));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        // Act
+        long[] lastTs = new long[producers];
+        Arrays.fill(lastTs, -1);
+        long drained = 0;
+        List<Location> batch = new ArrayList<>();
+        start.countDown();
+        while (done.getCount() > 0 || !ring.isEmpty()) {
+            batch.clear();
+            drained += ring.drainTo(batch, 16);
+            for (Location location : batch) {
+                int p = Integer.parseInt(location.tid);
+                if (location.ts <= lastTs[p])
+                    outOfOrder.set(true);
+                lastTs[p] = location.ts;
+            }
+        }
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // Assert
+        assertThat(outOfOrder.get()).isFalse();
+        assertThat(drained + ring.dropped()).isEqualTo((long) producers * perProducer);
+    }
+}
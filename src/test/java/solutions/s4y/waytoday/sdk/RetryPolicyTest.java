@@ -0,0 +1,48 @@
+package solutions.s4y.waytoday.sdk;
+
+import io.grpc.Status;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RetryPolicyTest {
+    @Test
+    public void isRetryable_shouldTellTransientFailures() {
+        // Assert
+        assertThat(RetryPolicy.isRetryable(Status.UNAVAILABLE.asRuntimeException())).isTrue();
+        assertThat(RetryPolicy.isRetryable(new ExecutionException(Status.DEADLINE_EXCEEDED.asException()))).isTrue();
+        assertThat(RetryPolicy.isRetryable(Status.INVALID_ARGUMENT.asRuntimeException())).isFalse();
+        assertThat(RetryPolicy.isRetryable(new IllegalStateException("test"))).isFalse();
+    }
+
+    @Test
+    public void backoff_shouldGrowWithinJitterAndCap() {
+        // Arrange
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000, 2, 0.5, 10, 0.1);
+        // Act & Assert
+        for (int i = 0; i < 100; i++) {
+            assertThat(policy.backoffMs(1)).isBetween(50L, 100L);
+            assertThat(policy.backoffMs(3)).isBetween(200L, 400L);
+            assertThat(policy.backoffMs(10)).isBetween(500L, 1000L);
+        }
+    }
+
+    @Test
+    public void budget_shouldStopRetriesUntilSuccessesRefillIt() {
+        // Arrange
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000, 2, 0, 4, 0.5);
+        // Act & Assert
+        assertThat(policy.onFailure()).isTrue();
+        assertThat(policy.onFailure()).isFalse();
+        policy.onSuccess();
+        policy.onSuccess();
+        assertThat(policy.getTokens()).isEqualTo(3);
+        assertThat(policy.onFailure()).isFalse();
+        policy.onSuccess();
+        policy.onSuccess();
+        policy.onSuccess();
+        assertThat(policy.onFailure()).isTrue();
+    }
+}
@@ -0,0 +1,174 @@
+package solutions.s4y.waytoday.sdk;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static solutions.s4y.waytoday.sdk.WayTodayClientTest.Locations.getLocation;
+import static solutions.s4y.waytoday.sdk.WayTodayClientTest.Locations.ids;
+
+public class SpillingLocationsQueueTest {
+    @TempDir
+    File directory;
+    private SpillingLocationsQueue queue;
+
+    @AfterEach
+    public void tearDown() {
+        if (queue != null)
+            queue.close();
+    }
+
+    private List<Location> peekAll() {
+        List<Location> locations = new ArrayList<>();
+        queue.peek(locations, Integer.MAX_VALUE);
+        return locations;
+    }
+
+    @Test
+    public void queue_shouldSpillBeyondHotBoundInOrder() throws IOException {
+        // Arrange
+        queue = new SpillingLocationsQueue(new File(directory, "spill"), 100 * SpillingLocationsQueue.RECORD_SIZE, 4);
+        // Act
+        for (int i = 0; i < 10; i++) {
+            queue.offer(getLocation(i));
+        }
+        // Assert
+        assertThat(queue.size()).isEqualTo(10);
+        assertThat(queue.spilled()).isEqualTo(6);
+        assertThat(ids(peekAll())).containsExactly("0", "1", "2", "3", "4", "5", "6", "7", "8", "9");
+        assertThat(queue.dropped()).isEqualTo(0);
+    }
+
+    @Test
+    public void queue_shouldRestoreSpilledLocations() throws IOException {
+        // Arrange
+        queue = new SpillingLocationsQueue(new File(directory, "spill"), 100 * SpillingLocationsQueue.RECORD_SIZE, 1);
+        queue.offer(getLocation(2));
+        queue.offer(getLocation(3));
+        // Act
+        Location location = peekAll().get(0);
+        // Assert
+        assertThat(queue.spilled()).isEqualTo(1);
+        assertThat(location.id).isEqualTo("2");
+        assertThat(location.tid).isEqualTo("tid");
+        assertThat(location.lat).isEqualTo(2);
+        assertThat(location.lon).isEqualTo(-2);
+        assertThat(location.alt).isEqualTo(3);
+        assertThat(location.bear).isEqualTo(4);
+        assertThat(location.ts).isEqualTo(1002);
+        assertThat(location.batp).isEqualTo(50);
+        assertThat(location.bats).isTrue();
+        assertThat(location.provider).isEqualTo("provider");
+        assertThat(location.speed).isEqualTo(5);
+        assertThat(location.acc).isEqualTo(6);
+        assertThat(location.sid).isEqualTo("sid");
+    }
+
+    @Test
+    public void queue_shouldRemoveAcrossTiers() throws IOException {
+        // Arrange
+        queue = new SpillingLocationsQueue(new File(directory, "spill"), 100 * SpillingLocationsQueue.RECORD_SIZE, 4);
+        for (int i = 0; i < 10; i++) {
+            queue.offer(getLocation(i));
+        }
+        List<Location> pack = new ArrayList<>();
+        long first = queue.peek(pack, 8);
+        // Act
+        queue.removeUpTo(first + pack.size());
+        // Assert
+        assertThat(ids(peekAll())).containsExactly("8", "9");
+        assertThat(queue.spilled()).isEqualTo(0);
+        assertThat(queue.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void queue_shouldEvictOldestWhenFileIsFull() throws IOException {
+        // Arrange
+        queue = new SpillingLocationsQueue(new File(directory, "spill"), 3 * SpillingLocationsQueue.RECORD_SIZE, 2);
+        // Act
+        for (int i = 0; i < 10; i++) {
+            queue.offer(getLocation(i));
+        }
+        // Assert
+        List<Location> all = peekAll();
+        assertThat(queue.spilled()).isEqualTo(3);
+        assertThat(ids(all)).containsExactly("5", "6", "7", "8", "9");
+        assertThat(queue.dropped()).isEqualTo(5);
+    }
+
+    @Test
+    public void queue_shouldNotEvictForLocationWithNewStringToFullDictionary() throws IOException {
+        // Arrange
+        // the dictionary of "", "tid" and "provider", the file of 2 records
+        queue = new SpillingLocationsQueue(new File(directory, "spill"), 2 * SpillingLocationsQueue.RECORD_SIZE, 1, 3);
+        for (int i = 1; i <= 3; i++) {
+            queue.offer(new Location("", "tid", 0, 0, 0, 0, i, 0, false, "provider", 0, 0, ""));
+        }
+        // Act
+        // the new tid is spilled to the full file by the next location
+        queue.offer(new Location("", "new", 0, 0, 0, 0, 4, 0, false, "provider", 0, 0, ""));
+        queue.offer(new Location("", "tid", 0, 0, 0, 0, 5, 0, false, "provider", 0, 0, ""));
+        // Assert
+        List<Location> spilled = peekAll();
+        assertThat(queue.spilled()).isEqualTo(2);
+        assertThat(spilled).extracting(location -> location.ts).containsExactly(2L, 3L);
+        // the first location evicted by the third one, the new tid is not stored
+        assertThat(queue.dropped()).isEqualTo(2);
+    }
+
+    @Test
+    public void queue_shouldSpillDistinctIdsWithoutFillingDictionary() throws IOException {
+        // Arrange
+        // the dictionary of "", "tid", "provider" and "sid" only
+        queue = new SpillingLocationsQueue(new File(directory, "spill"), 100 * SpillingLocationsQueue.RECORD_SIZE, 1, 4);
+        // Act
+        for (int i = 0; i < 10; i++) {
+            queue.offer(getLocation(i));
+        }
+        // Assert
+        assertThat(queue.spilled()).isEqualTo(9);
+        assertThat(ids(peekAll())).containsExactly("0", "1", "2", "3", "4", "5", "6", "7", "8", "9");
+        assertThat(queue.dropped()).isEqualTo(0);
+    }
+
+    @Test
+    public void queue_shouldClearDictionaryOnceDrained() throws IOException {
+        // Arrange
+        // the dictionary of "", "a" and "provider" only
+        queue = new SpillingLocationsQueue(new File(directory, "spill"), 100 * SpillingLocationsQueue.RECORD_SIZE, 1, 3);
+        queue.offer(new Location("", "a", 0, 0, 0, 0, 1, 0, false, "provider", 0, 0, ""));
+        queue.offer(new Location("", "a", 0, 0, 0, 0, 2, 0, false, "provider", 0, 0, ""));
+        List<Location> pack = new ArrayList<>();
+        long first = queue.peek(pack, Integer.MAX_VALUE);
+        // Act
+        queue.removeUpTo(first + pack.size());
+        queue.offer(new Location("", "b", 0, 0, 0, 0, 3, 0, false, "provider", 0, 0, ""));
+        queue.offer(new Location("", "b", 0, 0, 0, 0, 4, 0, false, "provider", 0, 0, ""));
+        // Assert
+        assertThat(queue.spilled()).isEqualTo(1);
+        assertThat(peekAll()).extracting(location -> location.tid).containsExactly("b", "b");
+        assertThat(queue.dropped()).isEqualTo(0);
+    }
+
+    @Test
+    public void close_shouldTruncateOverflowFile() throws IOException {
+        // Arrange
+        File file = new File(directory, "spill");
+        queue = new SpillingLocationsQueue(file, 100 * SpillingLocationsQueue.RECORD_SIZE, 1);
+        queue.offer(getLocation(1));
+        queue.offer(getLocation(2));
+        // Act
+        queue.close();
+        // Assert
+        assertThat(file.length()).isEqualTo(0);
+        assertThat(file.delete()).isTrue();
+        assertThatThrownBy(() -> queue.peek(new ArrayList<>(), 1)).isInstanceOf(IllegalStateException.class);
+    }
+}
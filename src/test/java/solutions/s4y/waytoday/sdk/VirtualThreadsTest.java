@@ -0,0 +1,55 @@
+package solutions.s4y.waytoday.sdk;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VirtualThreadsTest {
+    private static boolean isJdk21() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static boolean isVirtual(Thread thread) throws Exception {
+        return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+    }
+
+    @Test
+    public void newPerTaskExecutor_shouldRunOnVirtualThreadsIfSupported() throws Exception {
+        // Arrange
+        ExecutorService executor = VirtualThreads.newPerTaskExecutor();
+        // Act & Assert
+        assertThat(VirtualThreads.isSupported()).isEqualTo(isJdk21());
+        if (!isJdk21()) {
+            assertThat(executor).isNull();
+            return;
+        }
+        Future<Thread> thread = executor.submit(Thread::currentThread);
+        assertThat(isVirtual(thread.get(1, TimeUnit.SECONDS))).isTrue();
+        executor.shutdown();
+    }
+
+    @Test
+    public void factory_shouldNameVirtualThreadsIfSupported() throws Exception {
+        // Arrange
+        ThreadFactory factory = VirtualThreads.factory("test-");
+        // Act & Assert
+        if (!isJdk21()) {
+            assertThat(factory).isNull();
+            return;
+        }
+        Thread thread = factory.newThread(() -> {
+        });
+        assertThat(thread.getName()).isEqualTo("test-0");
+        assertThat(isVirtual(thread)).isTrue();
+    }
+}
@@ -4,11 +4,19 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Mockito.*;
 
 public class WayTodayClientAsyncTest {
@@ -128,4 +136,205 @@ public class WayTodayClientAsyncTest {
         List<String> statuses = captor.getAllValues();
         assertThat(statuses.get(0)).isEqualTo(trackId);
     }
+
+    @Test
+    public void requestNewTrackerIdAsync_shouldPersistAndNotifyBeforeCompletion() throws Exception {
+        // Arrange
+        ITrackIdChangeListener listener = mock(ITrackIdChangeListener.class);
+        client.addTrackIdChangeListener(listener);
+        CompletableFuture<String> call = new CompletableFuture<>();
+        when(grpcClient.generateTrackerIdAsync(any(), any())).thenReturn(call);
+        // Act
+        CompletableFuture<String> tid = client.requestNewTrackerIdAsync(null);
+        assertThat(client.isRequestNewTrackerIdInProgress()).isTrue();
+        call.complete("42");
+        // Assert
+        assertThat(tid.get(1, TimeUnit.SECONDS)).isEqualTo("42");
+        verify(state).setTrackerId("42");
+        verify(listener).onTrackId("42");
+        assertThat(client.isRequestNewTrackerIdInProgress()).isFalse();
+    }
+
+    @Test
+    public void testTrackerIdAsync_shouldCancelTheCall() {
+        // Arrange
+        CompletableFuture<Boolean> call = new CompletableFuture<>();
+        when(grpcClient.testTrackerIdAsync(any(), any())).thenReturn(call);
+        IErrorsListener errorsListener = mock(IErrorsListener.class);
+        client.addErrorsListener(errorsListener);
+        // Act
+        client.testTrackerIdAsync("tid").cancel(true);
+        // Assert
+        assertThat(call.isCancelled()).isTrue();
+        verify(errorsListener, never()).onError(any());
+    }
+
+    @Test
+    public void getLocationsPublisher_shouldEmitOnDemand() {
+        // Arrange
+        LocationBatch batch = new LocationBatch();
+        for (int i = 0; i < 3; i++) {
+            batch.add(Locations.getDummyLocation(String.valueOf(i)));
+        }
+        CompletableFuture<LocationBatch> call = new CompletableFuture<>();
+        when(grpcClient.getLocationBatchAsync(eq("tid"), eq(3), any())).thenReturn(call);
+        List<String> received = new ArrayList<>();
+        AtomicBoolean completed = new AtomicBoolean();
+        AtomicReference<Subscription> subscription = new AtomicReference<>();
+        // Act
+        client.getLocationsPublisher("tid", 3).subscribe(new Subscriber<Location>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                subscription.set(s);
+            }
+
+            @Override
+            public void onNext(Location location) {
+                received.add(location.id);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onComplete() {
+                completed.set(true);
+            }
+        });
+        // Assert
+        verify(grpcClient, never()).getLocationBatchAsync(any(), anyInt(), any());
+        // Act
+        subscription.get().request(2);
+        call.complete(batch);
+        // Assert
+        assertThat(received).containsExactly("0", "1");
+        assertThat(completed).isFalse();
+        // Act
+        subscription.get().request(5);
+        // Assert
+        assertThat(received).containsExactly("0", "1", "2");
+        assertThat(completed).isTrue();
+    }
+
+    @Test
+    public void getLocationsPublisher_shouldRejectNullSubscriber() {
+        // Act
+        // Assert
+        assertThatThrownBy(() -> client.getLocationsPublisher("tid", 3).subscribe(null))
+                .isInstanceOf(NullPointerException.class);
+    }
+
+    private List<Integer> recordPackSizes() throws Exception {
+        // the pack is cleared after the call, so record its size while it lasts
+        List<Integer> sizes = new CopyOnWriteArrayList<>();
+        when(grpcClient.addLocations(any(), any())).thenAnswer(invocation -> {
+            sizes.add(invocation.<List<Location>>getArgument(1).size());
+            return true;
+        });
+        return sizes;
+    }
+
+    private static void awaitPacks(List<Integer> sizes) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (sizes.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void autoUpload_shouldUploadFullQueueAtOnce() throws Exception {
+        // Arrange
+        List<Integer> sizes = recordPackSizes();
+        client.setAutoUpload(4, 60_000);
+        // Act
+        for (int i = 0; i < 3; i++) {
+            client.enqueueLocationToUpload(Locations.getDummyLocation(String.valueOf(i)));
+        }
+        Thread.sleep(100);
+        // Assert
+        assertThat(sizes).isEmpty();
+        // Act
+        client.enqueueLocationToUpload(Locations.getDummyLocation("3"));
+        // Assert
+        awaitPacks(sizes);
+        assertThat(sizes).containsExactly(4);
+    }
+
+    @Test
+    public void autoUpload_shouldUploadOldLocations() throws Exception {
+        // Arrange
+        List<Integer> sizes = recordPackSizes();
+        client.setAutoUpload(100, 50);
+        // Act
+        client.enqueueLocationToUpload(Locations.getDummyLocation("0"));
+        client.enqueueLocationToUpload(Locations.getDummyLocation("1"));
+        // Assert
+        awaitPacks(sizes);
+        assertThat(sizes).containsExactly(2);
+    }
+
+    @Test
+    public void close_shouldLetSubmittedUploadComplete() throws Exception {
+        // Arrange
+        IErrorsListener errors = mock(IErrorsListener.class);
+        client.addErrorsListener(errors);
+        when(grpcClient.addLocations(any(), any())).thenAnswer(invocation -> {
+            Thread.sleep(100);
+            return true;
+        });
+        client.enqueueLocationToUpload(Locations.getDummyLocation("0"));
+        client.submitUploadLocations();
+        // Act
+        client.close();
+        // Assert
+        assertThat(client.locationsQueue.isEmpty()).isTrue();
+        verify(errors, never()).onError(any());
+        verify(grpcClient).close();
+    }
+
+    @Test
+    public void close_shouldDrainQueueWithinTimeout() throws Exception {
+        // Arrange
+        List<Integer> sizes = recordPackSizes();
+        for (int i = 0; i < 3; i++) {
+            client.enqueueLocationToUpload(Locations.getDummyLocation(String.valueOf(i)));
+        }
+        // Act
+        boolean drained = client.close(1, TimeUnit.SECONDS);
+        // Assert
+        assertThat(drained).isTrue();
+        assertThat(sizes).containsExactly(3);
+        verify(grpcClient).close();
+    }
+
+    @Test
+    public void close_shouldCloseConnectionsAfterInterruptedUploadStops() throws Exception {
+        // Arrange
+        AtomicBoolean uploading = new AtomicBoolean();
+        AtomicBoolean closedWhileUploading = new AtomicBoolean();
+        when(grpcClient.addLocations(any(), any())).thenAnswer(invocation -> {
+            uploading.set(true);
+            // the call ignores the interrupt for a while, like a blocking write
+            long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+            while (System.nanoTime() < until) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException ignored) {
+                }
+            }
+            uploading.set(false);
+            return true;
+        });
+        doAnswer(invocation -> {
+            closedWhileUploading.set(uploading.get());
+            return null;
+        }).when(grpcClient).close();
+        client.enqueueLocationToUpload(Locations.getDummyLocation("0"));
+        // Act
+        client.close(10, TimeUnit.MILLISECONDS);
+        // Assert
+        verify(grpcClient).close();
+        assertThat(closedWhileUploading).isFalse();
+    }
 }
@@ -4,14 +4,19 @@ import org.junit.jupiter.api.*;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.NullSource;
 import org.junit.jupiter.params.provider.ValueSource;
+import org.reactivestreams.Subscription;
 
 import javax.annotation.Nullable;
 
 import java.util.ArrayList;
-import java.util.Deque;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Mockito.*;
 import static solutions.s4y.waytoday.sdk.WayTodayClientTest.Locations.getDummyLocation;
 
@@ -22,6 +27,25 @@ public class WayTodayClientTest {
         static Location getDummyLocation(String id) {
             return new Location(id, "", 0, 0, 0, 0, System.currentTimeMillis(), 0, false,"",0, 0, "");
         }
+
+        /**
+         * @return the location with the id i and the numeric fields derived from it
+         */
+        static Location getLocation(int i) {
+            return new Location(String.valueOf(i), "tid", i, -i, 3, 4, 1000L + i, 50, i % 2 == 0, "provider", 5, 6, "sid");
+        }
+
+        static List<String> ids(Collection<? extends Location> locations) {
+            List<String> ids = new ArrayList<>();
+            locations.forEach(location -> ids.add(location.id));
+            return ids;
+        }
+
+        static List<String> peekIds(ILocationsQueue queue) {
+            List<Location> locations = new ArrayList<>();
+            queue.peek(locations, Integer.MAX_VALUE);
+            return ids(locations);
+        }
     }
 
     private WayTodayClient client;
@@ -40,6 +64,12 @@ public class WayTodayClientTest {
         reset(errorsListener);
     }
 
+    private List<Location> queued() {
+        List<Location> queue = new ArrayList<>();
+        client.locationsQueue.peek(queue, Integer.MAX_VALUE);
+        return queue;
+    }
+
     @Nested
     @DisplayName("No gRPC calls")
     public class NoGrpcCallsTest {
@@ -202,11 +232,12 @@ public class WayTodayClientTest {
             final String lastId = "last";
             client.enqueueLocationToUpload(getDummyLocation(lastId));
             // Assert
-            Deque<Location> queue = client.locationsQueue;
+            List<Location> queue = queued();
             assertThat(queue.size()).isEqualTo(WayTodayClient.MAX_LOCATIONS_MEMORY);
-            assertThat(queue.getFirst().id).isEqualTo(secondId);
-            assertThat(queue.getLast().id).isEqualTo(lastId);
-            assertThat(queue.contains(getDummyLocation(firstId))).isFalse();
+            assertThat(queue.get(0).id).isEqualTo(secondId);
+            assertThat(queue.get(queue.size() - 1).id).isEqualTo(lastId);
+            assertThat(queue).noneMatch(location -> location.id.equals(firstId));
+            assertThat(client.locationsQueue.dropped()).isEqualTo(1);
             verify(errorsListener, never()).onError(any());
         }
 
@@ -228,7 +259,7 @@ public class WayTodayClientTest {
             // Act
             client.uploadLocations();
             // Assert
-            assertThat(client.locationsQueue).isEmpty();
+            assertThat(client.locationsQueue.isEmpty()).isTrue();
             assertThat(client.getUploadingLocationsStatus()).isEqualTo(UploadingLocationsStatus.EMPTY);
             verify(grpcClient).addLocations(eq(trackId), any());
             assertThat(pack.size()).isEqualTo(WayTodayClient.PACK_SIZE - 1);
@@ -253,7 +284,7 @@ public class WayTodayClientTest {
             // Act
             client.uploadLocations();
             // Assert
-            assertThat(client.locationsQueue).isEmpty();
+            assertThat(client.locationsQueue.isEmpty()).isTrue();
             assertThat(client.getUploadingLocationsStatus()).isEqualTo(UploadingLocationsStatus.EMPTY);
             verify(grpcClient, times(2)).addLocations(eq(trackId), any());
             assertThat(packs.size()).isEqualTo(2);
@@ -262,6 +293,126 @@ public class WayTodayClientTest {
             verify(errorsListener, never()).onError(any());
         }
 
+        @Test
+        public void uploadLocations_shouldClearQueueWithPacksInFlight() throws Exception {
+            // Arrange
+            for (int i = 0; i < WayTodayClient.PACK_SIZE * 3 - 1; i++) {
+                client.enqueueLocationToUpload(getDummyLocation(String.valueOf(i)));
+            }
+            final String trackId = "test_uploadLocationsPipelined";
+            when(state.getTrackerId()).thenReturn(trackId);
+            when(grpcClient.addLocationsAsync(eq(trackId), any())).thenReturn(CompletableFuture.completedFuture(true));
+            client.setMaxPacksInFlight(4);
+
+            // Act
+            client.uploadLocations();
+            // Assert
+            assertThat(client.locationsQueue.isEmpty()).isTrue();
+            assertThat(client.getUploadingLocationsStatus()).isEqualTo(UploadingLocationsStatus.EMPTY);
+            verify(grpcClient, times(3)).addLocationsAsync(eq(trackId), any());
+            verify(grpcClient, never()).addLocations(any(), any());
+            verify(errorsListener, never()).onError(any());
+        }
+
+        @Test
+        public void uploadLocations_shouldKeepPacksAfterFailedPackInFlight() throws Exception {
+            // Arrange
+            for (int i = 0; i < WayTodayClient.PACK_SIZE * 3 - 1; i++) {
+                client.enqueueLocationToUpload(getDummyLocation(String.valueOf(i)));
+            }
+            final String trackId = "test_uploadLocationsPipelinedFailed";
+            when(state.getTrackerId()).thenReturn(trackId);
+            CompletableFuture<Boolean> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new Exception("Test"));
+            when(grpcClient.addLocationsAsync(eq(trackId), any()))
+                    .thenReturn(CompletableFuture.completedFuture(true))
+                    .thenReturn(failed)
+                    .thenReturn(CompletableFuture.completedFuture(true));
+            client.setMaxPacksInFlight(4);
+            client.addErrorsListener(errorsListener);
+
+            // Act
+            client.uploadLocations();
+            // Assert
+            assertThat(queued()).hasSize(WayTodayClient.PACK_SIZE * 2 - 1);
+            assertThat(queued().get(0).id).isEqualTo(String.valueOf(WayTodayClient.PACK_SIZE));
+            assertThat(client.getUploadingLocationsStatus()).isEqualTo(UploadingLocationsStatus.ERROR);
+            verify(errorsListener, times(1)).onError(any());
+
+            // Act
+            when(grpcClient.addLocationsAsync(eq(trackId), any())).thenReturn(CompletableFuture.completedFuture(true));
+            client.uploadLocations();
+            // Assert
+            assertThat(client.locationsQueue.isEmpty()).isTrue();
+            assertThat(client.getUploadingLocationsStatus()).isEqualTo(UploadingLocationsStatus.EMPTY);
+        }
+
+        @Test
+        public void locationsSubscriber_shouldRequestAsQueueDrains() throws Exception {
+            // Arrange
+            List<Long> requests = new ArrayList<>();
+            Subscription subscription = mock(Subscription.class);
+            doAnswer(invocation -> requests.add(invocation.getArgument(0))).when(subscription).request(anyLong());
+            when(state.getTrackerId()).thenReturn("tid");
+            when(grpcClient.addLocations(eq("tid"), any())).thenReturn(true);
+            LocationsSubscriber subscriber = client.newLocationsSubscriber(20);
+            // Act
+            subscriber.onSubscribe(subscription);
+            for (int i = 0; i < 20; i++) {
+                subscriber.onNext(getDummyLocation(String.valueOf(i)));
+            }
+            // Assert
+            assertThat(requests).containsExactly(20L);
+            assertThat(client.locationsQueue.dropped()).isEqualTo(0);
+            // Act
+            client.uploadLocations();
+            // Assert
+            assertThat(requests).containsExactly(20L, (long) WayTodayClient.PACK_SIZE, 20L - WayTodayClient.PACK_SIZE);
+            assertThat(subscriber.getOutstanding()).isEqualTo(20);
+            // Act
+            client.close();
+            // Assert
+            verify(subscription).cancel();
+        }
+
+        @Test
+        public void locationsSubscriber_shouldNotCallSubscriptionConcurrently() throws Exception {
+            // Arrange
+            AtomicInteger active = new AtomicInteger();
+            AtomicBoolean overlapped = new AtomicBoolean();
+            Subscription subscription = mock(Subscription.class);
+            doAnswer(invocation -> {
+                if (active.incrementAndGet() > 1)
+                    overlapped.set(true);
+                Thread.sleep(1);
+                active.decrementAndGet();
+                return null;
+            }).when(subscription).request(anyLong());
+            LocationsSubscriber subscriber = client.newLocationsSubscriber(20);
+            subscriber.onSubscribe(subscription);
+            Object publisher = new Object();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < 50; i++) {
+                        synchronized (publisher) {
+                            subscriber.onNext(Locations.dummyLocation);
+                        }
+                        client.locationsQueue.removeUpTo(Long.MAX_VALUE);
+                        subscriber.request();
+                    }
+                }));
+            }
+            // Act
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            // Assert
+            assertThat(overlapped).isFalse();
+            assertThatThrownBy(() -> subscriber.onNext(null)).isInstanceOf(NullPointerException.class);
+        }
+
         @Test
         public void client_shouldHaveQueuedStatusAfterEnqueue() {
             // Act
@@ -0,0 +1,252 @@
+package solutions.s4y.waytoday.sdk;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static solutions.s4y.waytoday.sdk.WayTodayClientTest.Locations.getLocation;
+
+public class WayTodayFleetClientTest {
+    private final List<String> uploads = new CopyOnWriteArrayList<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private GrpcClient grpcClient;
+    private WayTodayFleetClient client;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        grpcClient = mock(GrpcClient.class);
+        when(grpcClient.addLocations(any(), anyList())).thenAnswer(invocation -> {
+            String tid = invocation.getArgument(0);
+            // the gate holds the only worker until all the trackers have their locations queued
+            if ("gate".equals(tid))
+                release.await(1, TimeUnit.SECONDS);
+            else
+                uploads.add(tid);
+            return true;
+        });
+        client = new WayTodayFleetClient(grpcClient, 1, 1000);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        client.close();
+    }
+
+    private void awaitEmpty(String... tids) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        for (String tid : tids) {
+            while (client.getQueueSize(tid) > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+        }
+    }
+
+    private void awaitStatus(String tid, UploadingLocationsStatus status) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (client.getUploadingLocationsStatus(tid) != status && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void upload_shouldNotStarveQuietTrackers() throws Exception {
+        // Arrange
+        client.enqueueLocationToUpload("gate", getLocation(0));
+        for (int i = 0; i < 100; i++) {
+            client.enqueueLocationToUpload("chatty", getLocation(i));
+        }
+        client.enqueueLocationToUpload("a", getLocation(0));
+        client.enqueueLocationToUpload("b", getLocation(0));
+        // Act
+        release.countDown();
+        awaitEmpty("chatty", "a", "b");
+        // Assert
+        assertThat(client.getQueueSize("chatty")).isEqualTo(0);
+        assertThat(uploads).hasSize((100 + WayTodayClient.PACK_SIZE - 1) / WayTodayClient.PACK_SIZE + 2);
+        assertThat(uploads.subList(0, 3)).containsExactly("chatty", "a", "b");
+    }
+
+    @Test
+    public void upload_shouldGiveWeightedTrackersMoreLocationsPerTurn() throws Exception {
+        // Arrange
+        client.setWeight("heavy", 2);
+        client.enqueueLocationToUpload("gate", getLocation(0));
+        for (int i = 0; i < 64; i++) {
+            client.enqueueLocationToUpload("heavy", getLocation(i));
+            client.enqueueLocationToUpload("light", getLocation(i));
+        }
+        // Act
+        release.countDown();
+        awaitEmpty("heavy", "light");
+        // Assert
+        assertThat(uploads.subList(0, 6)).containsExactly("heavy", "heavy", "light", "heavy", "heavy", "light");
+    }
+
+    @Test
+    public void upload_shouldIsolateFailingTracker() throws Exception {
+        // Arrange
+        doThrow(new RuntimeException("test")).when(grpcClient).addLocations(eq("broken"), anyList());
+        // Act
+        client.enqueueLocationToUpload("broken", getLocation(0));
+        client.enqueueLocationToUpload("ok", getLocation(0));
+        awaitEmpty("ok");
+        // Assert
+        assertThat(client.getQueueSize("ok")).isEqualTo(0);
+        assertThat(client.getQueueSize("broken")).isEqualTo(1);
+        assertThat(client.getUploadingLocationsStatus("broken")).isEqualTo(UploadingLocationsStatus.ERROR);
+        assertThat(uploads).containsExactly("ok");
+    }
+
+    @Test
+    public void upload_shouldNotRetryFailedTrackerOnEnqueue() throws Exception {
+        // Arrange
+        doThrow(new RuntimeException("test")).when(grpcClient).addLocations(eq("broken"), anyList());
+        client.enqueueLocationToUpload("broken", getLocation(0));
+        verify(grpcClient, timeout(1000)).addLocations(eq("broken"), anyList());
+        awaitStatus("broken", UploadingLocationsStatus.ERROR);
+        // Act
+        for (int i = 1; i < 10; i++) {
+            client.enqueueLocationToUpload("broken", getLocation(i));
+        }
+        Thread.sleep(100);
+        // Assert
+        verify(grpcClient, times(1)).addLocations(eq("broken"), anyList());
+        client.uploadLocations();
+        verify(grpcClient, timeout(1000).times(2)).addLocations(eq("broken"), anyList());
+    }
+
+    @Test
+    public void upload_shouldRetryFailedTrackerAfterBackoff() throws Exception {
+        // Arrange
+        RetryPolicy retryPolicy = new RetryPolicy(3, 300, 300, 1, 0, 10, 0.1);
+        client.setRetryPolicy(retryPolicy);
+        doReturn(false).when(grpcClient).addLocations(eq("down"), anyList());
+        client.enqueueLocationToUpload("down", getLocation(0));
+        verify(grpcClient, timeout(1000)).addLocations(eq("down"), anyList());
+        // Act
+        for (int i = 1; i < 10; i++) {
+            client.enqueueLocationToUpload("down", getLocation(i));
+        }
+        client.uploadLocations();
+        Thread.sleep(100);
+        // Assert
+        verify(grpcClient, times(1)).addLocations(eq("down"), anyList());
+        verify(grpcClient, timeout(2000).times(3)).addLocations(eq("down"), anyList());
+        awaitStatus("down", UploadingLocationsStatus.ERROR);
+        assertThat(retryPolicy.getTokens()).isEqualTo(7);
+        assertThat(client.getQueueSize("down")).isEqualTo(10);
+    }
+
+    @Test
+    public void coalescing_shouldMergeTrackersWithinLinger() throws Exception {
+        // Arrange
+        List<Map<String, List<Location>>> batches = new CopyOnWriteArrayList<>();
+        when(grpcClient.addLocationsOfTrackers(any())).thenAnswer(invocation -> {
+            batches.add(new LinkedHashMap<>(invocation.getArgument(0)));
+            return true;
+        });
+        client.setCoalescing(100, 1000);
+        // Act
+        for (int i = 0; i < 10; i++) {
+            client.enqueueLocationToUpload("tid" + i, getLocation(i));
+        }
+        awaitEmpty("tid0", "tid9");
+        // Assert
+        assertThat(batches).hasSize(1);
+        assertThat(batches.get(0)).hasSize(10);
+        assertThat(batches.get(0).keySet()).startsWith("tid0", "tid1");
+        assertThat(uploads).isEmpty();
+    }
+
+    @Test
+    public void coalescing_shouldSendFullBatchWithoutLinger() throws Exception {
+        // Arrange
+        List<Integer> sizes = new CopyOnWriteArrayList<>();
+        when(grpcClient.addLocationsOfTrackers(any())).thenAnswer(invocation -> {
+            Map<String, List<Location>> byTid = invocation.getArgument(0);
+            sizes.add(byTid.values().stream().mapToInt(List::size).sum());
+            return true;
+        });
+        client.setCoalescing(60_000, 4);
+        // Act
+        for (int i = 0; i < 4; i++) {
+            client.enqueueLocationToUpload("tid" + i, getLocation(i));
+        }
+        awaitEmpty("tid0", "tid1", "tid2", "tid3");
+        // Assert
+        assertThat(sizes).containsExactly(4);
+    }
+
+    @Test
+    public void close_shouldLetScheduledTurnsComplete() throws Exception {
+        // Arrange
+        AtomicBoolean closed = new AtomicBoolean();
+        doAnswer(invocation -> {
+            closed.set(true);
+            return null;
+        }).when(grpcClient).close();
+        doAnswer(invocation -> {
+            if ("gate".equals(invocation.getArgument(0)))
+                release.await(1, TimeUnit.SECONDS);
+            if (closed.get())
+                throw new IllegalStateException("The channel pool is closed");
+            uploads.add(invocation.getArgument(0));
+            return true;
+        }).when(grpcClient).addLocations(any(), anyList());
+        IErrorsListener errorsListener = mock(IErrorsListener.class);
+        client.addErrorsListener(errorsListener);
+        client.enqueueLocationToUpload("gate", getLocation(0));
+        for (int i = 0; i < 5; i++) {
+            client.enqueueLocationToUpload("tid" + i, getLocation(i));
+        }
+        new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            release.countDown();
+        }).start();
+        // Act
+        client.close();
+        // Assert
+        assertThat(uploads).containsExactlyInAnyOrder("gate", "tid0", "tid1", "tid2", "tid3", "tid4");
+        verify(errorsListener, never()).onError(any());
+    }
+
+    @Test
+    public void upload_shouldRunOnVirtualThreadsIfAsked() throws Exception {
+        // Arrange
+        client.close();
+        client = new WayTodayFleetClient(grpcClient, 8, 1000, true);
+        // Act
+        for (int i = 0; i < 20; i++) {
+            client.enqueueLocationToUpload("tid" + i, getLocation(i));
+        }
+        for (int i = 0; i < 20; i++) {
+            awaitEmpty("tid" + i);
+        }
+        // Assert
+        assertThat(uploads).hasSize(20);
+    }
+}
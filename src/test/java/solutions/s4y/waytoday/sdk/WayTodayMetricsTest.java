@@ -0,0 +1,130 @@
+package solutions.s4y.waytoday.sdk;
+
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WayTodayMetricsTest {
+    private static final Location LOCATION = new Location("tid", 1, 2, 3, 4, 5, 6, false, "", 7, 8);
+
+    private static IPersistedState persistedState() {
+        return new IPersistedState() {
+            @Override
+            public String getTrackerId() {
+                return "tid";
+            }
+
+            @Override
+            public void setTrackerId(String trackerId) {
+            }
+
+            @Override
+            public boolean hasTrackerId() {
+                return true;
+            }
+        };
+    }
+
+    @Test
+    public void upload_shouldCountEnqueuedDroppedAndUploaded() throws Exception {
+        // Arrange
+        try (FakeTrackerServer server = FakeTrackerServer.inProcess();
+             WayTodayClient client = new WayTodayClient(persistedState(), server.client(), new LocationsRingBuffer(4))) {
+            for (int i = 0; i < 6; i++) {
+                client.enqueueLocationToUpload(LOCATION);
+            }
+            WayTodayMetrics metrics = client.getMetrics();
+            assertThat(metrics.getQueueDepth()).isEqualTo(4);
+            // Act
+            client.uploadLocations();
+            // Assert
+            assertThat(metrics.getEnqueued()).isEqualTo(6);
+            assertThat(metrics.getDropped()).isEqualTo(2);
+            assertThat(metrics.getQueueDepth()).isEqualTo(0);
+            assertThat(metrics.getLocationsUploaded()).isEqualTo(4);
+            assertThat(metrics.getPacksUploaded()).isEqualTo(1);
+            assertThat(metrics.getBytesSent()).isGreaterThan(4 * 10);
+            assertThat(metrics.getLatency(GrpcOperation.ADD_LOCATIONS).getCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void upload_shouldCountRetriesAndFailures() throws Exception {
+        // Arrange
+        try (FakeTrackerServer server = FakeTrackerServer.inProcess();
+             WayTodayClient client = new WayTodayClient(persistedState(), server.client())) {
+            server.errors(1, Status.UNAVAILABLE);
+            client.setRetryPolicy(new RetryPolicy(3, 1, 1));
+            client.enqueueLocationToUpload(LOCATION);
+            // Act
+            client.uploadLocations();
+            // Assert
+            WayTodayMetrics metrics = client.getMetrics();
+            assertThat(metrics.getUploadFailures()).isEqualTo(3);
+            assertThat(metrics.getRetries()).isEqualTo(2);
+            assertThat(metrics.getLocationsUploaded()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void reconnect_shouldBeCounted() throws Exception {
+        // Arrange
+        FakeTrackerServer server = FakeTrackerServer.netty(0);
+        int port = server.getPort();
+        GrpcChannelPool pool = GrpcChannelPool.forAddress("localhost", port, false, 1, 0, 0);
+        GrpcClient grpcClient = new GrpcClient(FakeTrackerServer.PRINCIPAL, FakeTrackerServer.SECRET, "fake", pool);
+        try (WayTodayClient client = new WayTodayClient(persistedState(), grpcClient)) {
+            client.grpcClient.ping("first");
+            server.close();
+            // the channel fails to connect while the server is down
+            ManagedChannel channel = pool.get();
+            long down = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (channel.getState(true) != ConnectivityState.TRANSIENT_FAILURE && System.nanoTime() < down) {
+                Thread.sleep(10);
+            }
+            // Act
+            try (FakeTrackerServer restarted = FakeTrackerServer.netty(port)) {
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (client.getMetrics().getReconnects() == 0 && System.nanoTime() < deadline) {
+                    try {
+                        client.grpcClient.ping("again");
+                    } catch (Exception e) {
+                        Thread.sleep(50);
+                    }
+                }
+                // Assert
+                assertThat(client.getMetrics().getReconnects()).isEqualTo(1);
+            }
+        }
+    }
+
+    @Test
+    public void micrometer_shouldExportTheMeters() throws Exception {
+        // Arrange
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        try (FakeTrackerServer server = FakeTrackerServer.inProcess();
+             WayTodayClient client = new WayTodayClient(persistedState(), server.client())) {
+            client.getMetrics().bindTo(new MicrometerMetricsRegistry(registry, Tags.of("tracker", "tid")));
+            // Act
+            client.enqueueLocationToUpload(LOCATION);
+            client.enqueueLocationToUpload(LOCATION);
+            // Assert
+            assertThat(registry.get("waytoday.queue.depth").tag("tracker", "tid").gauge().value()).isEqualTo(2);
+            client.uploadLocations();
+            assertThat(registry.get("waytoday.queue.depth").gauge().value()).isEqualTo(0);
+            assertThat(registry.get("waytoday.locations.enqueued").functionCounter().count()).isEqualTo(2);
+            assertThat(registry.get("waytoday.locations.uploaded").functionCounter().count()).isEqualTo(2);
+            assertThat(registry.get("waytoday.grpc.latency").tag("operation", "add_locations").functionTimer().count())
+                    .isEqualTo(1);
+            assertThat(registry.get("waytoday.grpc.latency.percentile").tag("operation", "add_locations")
+                    .tag("phi", "0.99").timeGauge().value(TimeUnit.MICROSECONDS)).isGreaterThan(0);
+        }
+    }
+}
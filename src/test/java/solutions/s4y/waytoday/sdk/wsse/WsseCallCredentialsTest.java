@@ -0,0 +1,43 @@
+package solutions.s4y.waytoday.sdk.wsse;
+
+import io.grpc.CallCredentials;
+import io.grpc.Metadata;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class WsseCallCredentialsTest {
+    private static String applyToken(WsseCallCredentials credentials) {
+        CallCredentials.MetadataApplier applier = mock(CallCredentials.MetadataApplier.class);
+        ArgumentCaptor<Metadata> captor = ArgumentCaptor.forClass(Metadata.class);
+        credentials.applyRequestMetadata(null, Runnable::run, applier);
+        verify(applier).apply(captor.capture());
+        verify(applier, never()).fail(any());
+        return captor.getValue().get(WsseCallCredentials.WSSE_KEY);
+    }
+
+    @Test
+    void wsse_shouldAttachFreshTokenPerCall() {
+        // Arrange
+        WsseCallCredentials credentials = new WsseCallCredentials("user", "password");
+        // Act
+        String first = applyToken(credentials);
+        String second = applyToken(credentials);
+        // Assert
+        assertThat(first).startsWith("Username=\"user\"");
+        assertThat(second).isNotEqualTo(first);
+    }
+
+    @Test
+    void wsse_shouldReuseTokenWithinValidity() {
+        // Arrange
+        WsseCallCredentials credentials = new WsseCallCredentials("user", "password", 60_000);
+        // Act
+        String first = applyToken(credentials);
+        String second = applyToken(credentials);
+        // Assert
+        assertThat(second).isEqualTo(first);
+    }
+}